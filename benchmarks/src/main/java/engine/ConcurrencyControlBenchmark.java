@@ -0,0 +1,74 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A round of conflicting RW txns under 2PL or OCC
+ * (TransactionManager.enableOptimisticConcurrency). Contention is the
+ * number of older txns that read the variables first; then the
+ * measured txn reads them too, writes the first one and commits, and
+ * the older txns commit after it. With any contention the write
+ * conflicts with their reads: under 2PL (wait-die) the younger writer
+ * dies on their read locks and they commit; under OCC the writer
+ * commits and every one of them fails validation. So each round
+ * commits either the writer or the readers, and the score is the cost
+ * of a round, aborts included. At contention 0 nothing conflicts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrencyControlBenchmark {
+    @Param({"2pl", "occ"})
+    String concurrency;
+
+    @Param({"1", "10"})
+    int variableCount;
+
+    @Param({"1", "10"})
+    int replication;
+
+    @Param({"0", "16"})
+    int contention;
+
+    private EngineFixture engine;
+    private int[] variables;
+    private String[] others;
+    private int value = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new EngineFixture(replication);
+        if (concurrency.equals("occ")) {
+            engine.tm.enableOptimisticConcurrency();
+        }
+        variables = EngineFixture.variables(variableCount);
+        others = new String[contention];
+    }
+
+    @Benchmark
+    public void round() {
+        for (int i = 0; i < contention; i ++) {
+            others[i] = engine.nextTxnId();
+            engine.begin(others[i]);
+            for (int variable : variables) {
+                engine.read(others[i], variable);
+            }
+        }
+        String txn = engine.nextTxnId();
+        engine.begin(txn);
+        for (int variable : variables) {
+            engine.read(txn, variable);
+        }
+        engine.write(txn, variables[0], ++ value);
+        engine.end(txn);
+        for (int i = 0; i < contention; i ++) {
+            engine.end(others[i]);
+        }
+        engine.rotateSnapshots(0);
+    }
+}
@@ -0,0 +1,109 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A TransactionManager driven command by command, the way the
+ * input file drives it, for the engine benchmarks. Each begin
+ * starts a new tick, so a txn begun later is younger (wait-die).
+ */
+final class EngineFixture {
+    //Collect old versions this often, as the TM does once per tick
+    private static final int COLLECT_EVERY_COMMITS = 64;
+
+    final TransactionManager tm;
+    private long txnCount = 0;
+    private long commits = 0;
+    //Live read-only snapshots, oldest first
+    private final Deque<String> snapshots = new ArrayDeque<String>();
+
+    /**
+     * Engine events are discarded
+     * @param replication sites each variable is placed on, 1 to all of them
+     */
+    EngineFixture(int replication) {
+        this(replication, "serial");
+    }
+
+    /** @param fanOut serial, or parallel for per-site lanes (see TransactionManager.enableParallelFanOut) */
+    EngineFixture(int replication, String fanOut) {
+        if (replication < 1 || replication > TransactionManager.DEFAULT_SITE_COUNT) {
+            throw new IllegalArgumentException("Replication must be 1 to "
+                    + TransactionManager.DEFAULT_SITE_COUNT + ", not " + replication);
+        }
+        //every variable on the same number of sites, so any replication can be compared
+        tm = new TransactionManager(TransactionManager.DEFAULT_SITE_COUNT,
+                TransactionManager.DEFAULT_VARIABLE_COUNT, new RangePlacement(
+                TransactionManager.DEFAULT_SITE_COUNT, TransactionManager.DEFAULT_VARIABLE_COUNT, replication));
+        tm.setEventSink(new NoOpEventSink());
+        if (fanOut.equals("parallel")) {
+            tm.enableParallelFanOut();
+        }
+        tm.initialize();
+    }
+
+    void close() {
+        tm.shutdownFanOut();
+    }
+
+    /** The first count variables, x1..x(count) */
+    static int[] variables(int count) {
+        if (count < 1 || count > TransactionManager.DEFAULT_VARIABLE_COUNT) {
+            throw new IllegalArgumentException("Only " + TransactionManager.DEFAULT_VARIABLE_COUNT
+                    + " variables exist");
+        }
+        int[] variables = new int[count];
+        for (int i = 0; i < count; i ++) {
+            variables[i] = i + 1;
+        }
+        return variables;
+    }
+
+    String nextTxnId() {
+        return "B" + (txnCount ++);
+    }
+
+    void begin(String txn) {
+        tm.incrementTime();
+        tm.execute(new Command(Operation.BEGIN, txn));
+    }
+
+    void beginRO(String txn) {
+        tm.incrementTime();
+        tm.execute(new Command(Operation.BEGINRO, txn));
+    }
+
+    void read(String txn, int variable) {
+        tm.execute(new Command(Operation.READ, txn, variable));
+    }
+
+    void write(String txn, int variable, int value) {
+        Command write = new Command(Operation.WRITE, txn, variable);
+        write.setToWriteValue(value);
+        tm.execute(write);
+    }
+
+    void end(String txn) {
+        tm.execute(new Command(Operation.END, txn));
+    }
+
+    /**
+     * Keep the given number of read-only snapshots open, replacing the
+     * oldest by a new one, so each commit leaves about that many old
+     * versions per variable alive for the version collector to keep.
+     */
+    void rotateSnapshots(int live) {
+        if (live > 0) {
+            String snapshot = nextTxnId();
+            beginRO(snapshot);
+            snapshots.addLast(snapshot);
+        }
+        while (snapshots.size() > live) {
+            end(snapshots.removeFirst());
+        }
+        if (++ commits % COLLECT_EVERY_COMMITS == 0) {
+            tm.collectOldVersions();
+        }
+    }
+}
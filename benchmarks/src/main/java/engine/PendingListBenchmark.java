@@ -0,0 +1,89 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending list processing: a writer commits while older txns wait
+ * for its write locks, and every waiter is woken and retried
+ * (retryWokenCommands). Contention is the number of waiting reads,
+ * spread over the variables.
+ * Waiters can only be blocked and woken once, so every call is a
+ * whole round: waitersBlocked makes the waiters read before the
+ * writer commits, waitersNotBlocked after. Both run the same txns
+ * and commands; the difference is blocking the reads, waking them
+ * and retrying them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingListBenchmark {
+    @Param({"1", "10"})
+    int variableCount;
+
+    @Param({"1", "10"})
+    int replication;
+
+    @Param({"1", "16"})
+    int contention;
+
+    private EngineFixture engine;
+    private int[] variables;
+    private String[] waiters;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new EngineFixture(replication);
+        variables = EngineFixture.variables(variableCount);
+        waiters = new String[contention];
+    }
+
+    /** @return the writer, holding write locks on the variables */
+    private String beginRound() {
+        //waiters begin first, so under wait-die they wait for the younger writer
+        for (int i = 0; i < contention; i ++) {
+            waiters[i] = engine.nextTxnId();
+            engine.begin(waiters[i]);
+        }
+        String writer = engine.nextTxnId();
+        engine.begin(writer);
+        for (int variable : variables) {
+            engine.write(writer, variable, 0);
+        }
+        return writer;
+    }
+
+    private void readAll() {
+        for (int i = 0; i < contention; i ++) {
+            engine.read(waiters[i], variables[i % variables.length]);
+        }
+    }
+
+    private void endWaiters() {
+        for (String waiter : waiters) {
+            engine.end(waiter);
+        }
+    }
+
+    @Benchmark
+    public void waitersBlocked() {
+        String writer = beginRound();
+        readAll();
+        engine.end(writer);
+        engine.tm.retryWokenCommands();
+        endWaiters();
+    }
+
+    @Benchmark
+    public void waitersNotBlocked() {
+        String writer = beginRound();
+        engine.end(writer);
+        engine.tm.retryWokenCommands();
+        readAll();
+        endWaiters();
+    }
+}
@@ -0,0 +1,65 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read lock acquisition (processRWtxn): one RW txn reads each
+ * variable once. Contention is the number of other txns holding
+ * read locks on the same variables, so each lock header has that
+ * many readers already.
+ * A read lock is only taken once per txn, so every call is a whole
+ * txn: readTxn begins, reads and ends it, and emptyTxn only begins
+ * and ends one. The difference is taking the read locks and
+ * releasing them at commit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadLockBenchmark {
+    @Param({"1", "10"})
+    int variableCount;
+
+    @Param({"1", "10"})
+    int replication;
+
+    @Param({"0", "16"})
+    int contention;
+
+    private EngineFixture engine;
+    private int[] variables;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new EngineFixture(replication);
+        variables = EngineFixture.variables(variableCount);
+        for (int i = 0; i < contention; i ++) {
+            String reader = engine.nextTxnId();
+            engine.begin(reader);
+            for (int variable : variables) {
+                engine.read(reader, variable);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readTxn() {
+        String txn = engine.nextTxnId();
+        engine.begin(txn);
+        for (int variable : variables) {
+            engine.read(txn, variable);
+        }
+        engine.end(txn);
+    }
+
+    @Benchmark
+    public void emptyTxn() {
+        String txn = engine.nextTxnId();
+        engine.begin(txn);
+        engine.end(txn);
+    }
+}
@@ -0,0 +1,65 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot reads (processROtxn): one RO txn reads each variable once.
+ * Contention is the number of versions committed to every variable
+ * before the snapshot, so each read searches a chain that long.
+ * A snapshot read can be repeated, so the same RO txn serves a whole
+ * iteration and nothing but the reads is timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadOnlyReadBenchmark {
+    @Param({"1", "10"})
+    int variableCount;
+
+    @Param({"1", "10"})
+    int replication;
+
+    @Param({"0", "16"})
+    int contention;
+
+    private EngineFixture engine;
+    private int[] variables;
+    private String txn;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new EngineFixture(replication);
+        variables = EngineFixture.variables(variableCount);
+        for (int i = 0; i < contention; i ++) {
+            String writer = engine.nextTxnId();
+            engine.begin(writer);
+            for (int variable : variables) {
+                engine.write(writer, variable, i);
+            }
+            engine.end(writer);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTxn() {
+        txn = engine.nextTxnId();
+        engine.beginRO(txn);
+    }
+
+    @TearDown(Level.Iteration)
+    public void endTxn() {
+        engine.end(txn);
+    }
+
+    @Benchmark
+    public void snapshotReads() {
+        for (int variable : variables) {
+            engine.read(txn, variable);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write fan-out and commit (executeWrite, signalCommitAndReceiveChanges
+ * and Transaction.commit): one RW txn writes each variable once, to
+ * every available site holding it, and commits, appending a version
+ * at each of them. Contention is the number of read-only snapshots
+ * kept open, which keeps about that many old versions in every chain
+ * the writes go to. fanOut parallel does the work at each replica on
+ * that site's lane.
+ * A txn's first write to a variable and its commit can only happen
+ * once, so every call is a whole txn: writeTxn begins, writes and
+ * ends it, and emptyTxn only begins and ends one. The difference is
+ * the writes and their commit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteFanOutBenchmark {
+    @Param({"1", "10"})
+    int variableCount;
+
+    @Param({"1", "10"})
+    int replication;
+
+    @Param({"0", "16"})
+    int contention;
+
+    @Param({"serial", "parallel"})
+    String fanOut;
+
+    private EngineFixture engine;
+    private int[] variables;
+    private int value = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new EngineFixture(replication, fanOut);
+        variables = EngineFixture.variables(variableCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public void writeTxn() {
+        String txn = engine.nextTxnId();
+        engine.begin(txn);
+        value ++;
+        for (int variable : variables) {
+            engine.write(txn, variable, value);
+        }
+        engine.end(txn);
+        engine.rotateSnapshots(contention);
+    }
+
+    @Benchmark
+    public void emptyTxn() {
+        String txn = engine.nextTxnId();
+        engine.begin(txn);
+        engine.end(txn);
+        engine.rotateSnapshots(contention);
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Why a transaction was aborted
+ */
+public enum AbortCause {
+    WAIT_DIE, WOUND_WAIT, DEADLOCK, SITE_FAILURE, WRITE_CONFLICT, VALIDATION, ABANDONED;
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Snapshot of the latest committed value of every variable at every
+ * site, as of a snapshot time. Taken from the version chains, so a
+ * checkpoint only holds each variable's latch for as long as it takes
+ * to read it and never stalls writers for the whole snapshot.
+ *
+ * File layout (big-endian):
+ *   header: [int MAGIC][int FORMAT][int snapshot time][int site slots][int variable count]
+ *   then, for each site slot, [int site status][int n] followed by
+ *   n [int variable][int value][int version number][int 1 if readable here, else 0]
+ *   (n is 0 for an empty slot)
+ *
+ * A site's region only holds the variables placed on it, and restore
+ * refuses a checkpoint whose sites hold other variables than the
+ * current placement puts on them. A replica that was stale when the
+ * checkpoint was taken is restored unreadable, and a site that was down
+ * comes back as a recovered one, as after a restart from the log. Each region
+ * is memory-mapped on its own when writing and restoring. The file is
+ * written beside the target and renamed over it, so a crash
+ * mid-checkpoint leaves the previous checkpoint in place.
+ */
+public class Checkpoint {
+    static final int MAGIC = 0x44444350;
+    static final int FORMAT = 4;
+    static final int HEADER_BYTES = 20;
+
+    private Checkpoint() {
+    }
+
+    private static long regionBytes(Site site) {
+        return 8L + (site == null ? 0 : 16L * site.getVariables().length);
+    }
+
+    /**
+     * Write the values committed before snapshotTime. Versions at or after
+     * snapshotTime must be kept by the version collector until this returns.
+     */
+    public static void write(Path path, int snapshotTime, Site[] sites,
+                             int variableCount, EngineLatches latches) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT).putInt(snapshotTime)
+                    .putInt(sites.length).putInt(variableCount);
+            header.flip();
+            channel.write(header, 0);
+
+            long regionStart = HEADER_BYTES;
+            for (Site site : sites) {
+                long region = regionBytes(site);
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE,
+                        regionStart, region);
+                regionStart += region;
+                if (site == null) {
+                    continue;
+                }
+                int[] variables = site.getVariables();
+                out.putInt(site.getSiteStatus().ordinal());
+                out.putInt(variables.length);
+                for (int var : variables) {
+                    latches.lockVariable(var);
+                    try {
+                        out.putInt(var);
+                        out.putInt(site.readAsOf(var, snapshotTime));
+                        out.putInt(site.versionNumberAsOf(var, snapshotTime));
+                        out.putInt(site.canReadVariable(var) ? 1 : 0);
+                    } finally {
+                        latches.unlockVariable(var);
+                    }
+                }
+                out.force();
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a checkpoint into freshly initialized sites. Each restored
+     * variable is left with a single version, just before the snapshot time.
+     * @param placement what placed the variables on the sites
+     * @return snapshot time of the checkpoint
+     * @throws IOException also if the checkpoint was taken with another placement
+     */
+    public static int restore(Path path, Site[] sites, int variableCount,
+                              PlacementStrategy placement) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int format = header.getInt();
+            if (format != FORMAT) {
+                throw new IOException("Checkpoint " + path + " has format " + format + ", not " + FORMAT);
+            }
+            int snapshotTime = header.getInt();
+            int siteSlots = header.getInt();
+            int fileVariableCount = header.getInt();
+            if (siteSlots != sites.length || fileVariableCount != variableCount) {
+                throw new IOException("Checkpoint " + path + " was taken with " + siteSlots
+                        + " site slots and " + fileVariableCount + " variables");
+            }
+
+            int versionTime = Math.max(0, snapshotTime - 1);
+            long regionStart = HEADER_BYTES;
+            for (Site site : sites) {
+                MappedByteBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, 8);
+                SiteStatus status = SiteStatus.values()[counts.getInt()];
+                int n = counts.getInt();
+                long region = 8L + 16L * n;
+                int[] variables = site == null ? new int[0] : site.getVariables();
+                if (n != variables.length) {
+                    throw placementChanged(path, site == null ? 0 : site.getId());
+                }
+                if (n > 0) {
+                    MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+                            regionStart + 8, region - 8);
+                    for (int i = 0; i < n; i ++) {
+                        int var = in.getInt();
+                        int value = in.getInt();
+                        int versionNumber = in.getInt();
+                        boolean readable = in.getInt() != 0;
+                        if (var != variables[i]) {
+                            throw placementChanged(path, site.getId());
+                        }
+                        site.restoreVariable(var, new ValueTimeStamp(value, versionTime), versionNumber);
+                        if (!readable) {
+                            site.revokeReadPermissionForVariable(var);
+                        }
+                    }
+                    //a site that was down comes back up, without its replicated data
+                    if (status == SiteStatus.FAILED) {
+                        site.revokeReadPermissionForReplicatedVariables(placement);
+                    }
+                    if (!site.allEvenVariablesWrittenToAfterRecovery()) {
+                        site.setSiteStatus(SiteStatus.RECOVERED);
+                    }
+                }
+                regionStart += region;
+            }
+            return snapshotTime;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static IOException placementChanged(Path path, int siteId) {
+        return new IOException("Checkpoint " + path + " was taken with another placement: site "
+                + siteId + " held other variables");
+    }
+}
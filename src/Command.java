@@ -6,14 +6,22 @@
 public class Command {
     private Operation operation;
     private String txn;
-    private String var;
+    private int varId;
     //for write commands:
-    private Integer toWriteValue;
+    private int toWriteValue;
     //for fail/recover:
     private int siteAffected;
-    private boolean inPendingList = false;
+    //volatile: a thread that issued the command may watch for another thread retrying it
+    private volatile boolean inPendingList = false;
+    //order in which the command first blocked, and whether it has been woken to be retried
+    private long pendingSequence;
+    private boolean ready = false;
+    //System.nanoTime() when the command first blocked
+    private long blockedAtNanos;
     private DumpType dumpType;
     private int dumpValue;
+    //where output of this command goes; null for the local console
+    private ResponseTarget replyTo;
 
     /**
      * use this for fail/recover cmds
@@ -26,21 +34,27 @@ public class Command {
     /**
      * Use this for read/write cmds
      */
-    public Command(Operation op, String t, String v) {
+    public Command(Operation op, String t, int v) {
         operation = op;
         txn = t;
-        var = v;
-        toWriteValue = null;
+        varId = v;
     }
 
     /**
-     * Use this for begin/beginRO/end cmds
+     * Use this for begin/beginRO/beginSI/end cmds
      */
     public Command(Operation op, String transaction) {
         operation = op;
         txn = transaction;
     }
 
+    /**
+     * Use this for stats cmds
+     */
+    public Command(Operation op) {
+        operation = op;
+    }
+
     /**
      * Use this for dump cmds
      * @param op dump
@@ -61,6 +75,30 @@ public class Command {
         inPendingList = val;
     }
 
+    public long getBlockedAtNanos() {
+        return blockedAtNanos;
+    }
+
+    public void setBlockedAtNanos(long nanos) {
+        blockedAtNanos = nanos;
+    }
+
+    public long getPendingSequence() {
+        return pendingSequence;
+    }
+
+    public void setPendingSequence(long sequence) {
+        pendingSequence = sequence;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady(boolean val) {
+        ready = val;
+    }
+
     public Operation getOperation() {
         return operation;
     }
@@ -69,8 +107,13 @@ public class Command {
         return txn;
     }
 
+    /** Id of the variable, see VariableCatalog */
+    public int getVarId() {
+        return varId;
+    }
+
     public String getVar() {
-        return var;
+        return VariableCatalog.nameOf(varId);
     }
 
     public int getSiteAffected() {
@@ -89,6 +132,14 @@ public class Command {
         return dumpValue;
     }
 
+    public ResponseTarget getReplyTo() {
+        return replyTo;
+    }
+
+    public void setReplyTo(ResponseTarget target) {
+        replyTo = target;
+    }
+
     /**
      * Use this for write commands. Eg: W(T1, x3, 10);
      * @param value: value to be written. In the above eg., 10.
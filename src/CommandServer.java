@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * TCP front end for the TransactionManager.
+ *
+ * Clients send lines in the same grammar as the input file
+ * (eg. "begin(T1); R(T1,x2)"). Each line is executed as one tick,
+ * exactly like a line of the input file, and is answered with the
+ * output it produced followed by a line "OK". A client may pipeline
+ * any number of lines without waiting for their answers; lines are
+ * executed and answered in the order sent. Output of a command that
+ * blocked and runs later (eg. once a lock is released) is sent to
+ * the client that issued it, ahead of the "OK" of whichever line
+ * caused it to run. A line that does not parse is answered with
+ * "ERROR <why>" alone; a command that parses but cannot run (eg. on
+ * a variable that does not exist) is answered with "ERROR <why>" in
+ * place of its output, and the rest of its line still runs.
+ *
+ * Txn ids belong to the client that began them: a client can only
+ * issue commands of its own txns, and cannot begin an id another
+ * client's txn has. Once a txn has finished its id may be begun again,
+ * and the TM forgets it, so a long-running server does not keep
+ * every txn it has run.
+ *
+ * One selector thread serves all connections and runs the engine,
+ * so ticks from different clients are interleaved, never concurrent.
+ * When a client disconnects, the txns it began that are still running
+ * are aborted, so their locks do not block the other clients.
+ *
+ * Usage: java CommandServer [port]
+ * The database is set up by the same system properties as for
+ * TransactionManager.main, durability included; see
+ * TransactionManager.openFromSystemProperties.
+ */
+public class CommandServer {
+    static final int DEFAULT_PORT = 7070;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final TransactionManager tm;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    //Sessions with output queued since the last time they were flushed
+    private final Set<Session> sessionsWithOutput = new LinkedHashSet<Session>();
+
+    public CommandServer(TransactionManager tm, int port) throws IOException {
+        this.tm = tm;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** The port listened on; the one picked by the system if port 0 was asked for */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        TransactionManager tm = TransactionManager.openFromSystemProperties(
+                new RoutingEventSink(new RingBufferEventSink(System.out)));
+        CommandServer commandServer = new CommandServer(tm, port);
+        System.out.println("Listening on port " + port);
+        commandServer.serve();
+    }
+
+    public void serve() throws IOException {
+        while (true) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        ((Session) key.attachment()).read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        ((Session) key.attachment()).flush();
+                    }
+                } catch (IOException e) {
+                    if (key.attachment() instanceof Session) {
+                        ((Session) key.attachment()).close();
+                    }
+                }
+            }
+            flushSessionsWithOutput();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Session session = new Session(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+    }
+
+    private void flushSessionsWithOutput() {
+        //closing a session aborts its txns, which may give other sessions more output
+        while (!sessionsWithOutput.isEmpty()) {
+            List<Session> toFlush = new ArrayList<Session>(sessionsWithOutput);
+            sessionsWithOutput.clear();
+            for (Session session : toFlush) {
+                try {
+                    session.flush();
+                } catch (IOException e) {
+                    session.close();
+                }
+            }
+        }
+    }
+
+    /** One client connection */
+    private class Session implements ResponseTarget {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        //Received bytes not yet making up a complete line
+        private byte[] inbound = new byte[READ_BUFFER_SIZE];
+        private int inboundLength = 0;
+        private final ReadFileInput parser = new ReadFileInput();
+        //Answers not yet written to the socket
+        private ByteBuffer outbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean closed = false;
+        //Txns begun by this client; those still running are aborted when it goes away
+        private final Set<String> txnsBegun = new LinkedHashSet<String>();
+        //Size of txnsBegun at which the finished txns are forgotten
+        private int forgetFinishedAt = 64;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            if (inboundLength + read > inbound.length) {
+                inbound = Arrays.copyOf(inbound, Math.max(2 * inbound.length, inboundLength + read));
+            }
+            readBuffer.get(inbound, inboundLength, read);
+            inboundLength += read;
+            executeCompleteLines();
+        }
+
+        /** Run every complete line received so far, in order, one tick each */
+        private void executeCompleteLines() {
+            int end = inboundLength;
+            while (end > 0 && inbound[end - 1] != '\n') {
+                end --;
+            }
+            if (end == 0) {
+                return;
+            }
+            parser.reset(inbound, 0, end);
+            while (parser.hasNextLine()) {
+                List<Command> commands;
+                try {
+                    commands = parser.getLineAsCommands();
+                } catch (IllegalArgumentException e) {
+                    writeError(e.getMessage());
+                    parser.skipRestOfLine();
+                    continue;
+                }
+                tm.incrementTime();
+                for (Command cmd : commands) {
+                    try {
+                        checkCommand(cmd);
+                    } catch (IllegalArgumentException e) {
+                        writeError(e.getMessage());
+                        continue;
+                    }
+                    cmd.setReplyTo(this);
+                    tm.execute(cmd);
+                    if (isBegin(cmd)) {
+                        txnsBegun.add(cmd.getTransaction());
+                    }
+                }
+                tm.endTick();
+                if (txnsBegun.size() >= forgetFinishedAt) {
+                    forgetFinishedTxns();
+                }
+                write(OK, 0, OK.length);
+            }
+            System.arraycopy(inbound, end, inbound, 0, inboundLength - end);
+            inboundLength -= end;
+        }
+
+        /**
+         * Commands of other clients' txns are refused, and so are those
+         * the TM would (see TransactionManager.checkCommand)
+         */
+        private void checkCommand(Command cmd) {
+            String txnId = cmd.getTransaction();
+            if (txnId != null && !isBegin(cmd) && !txnsBegun.contains(txnId)) {
+                throw new IllegalArgumentException("Unknown transaction " + txnId);
+            }
+            if (isBegin(cmd) && txnsBegun.contains(txnId)) {
+                //this client may begin an id of its own again once that txn has finished
+                tm.forgetFinishedTransactions(Collections.singleton(txnId));
+                if (tm.getTransaction(txnId) == null) {
+                    txnsBegun.remove(txnId);
+                }
+            }
+            tm.checkCommand(cmd);
+        }
+
+        private boolean isBegin(Command cmd) {
+            return cmd.getOperation() == Operation.BEGIN || cmd.getOperation() == Operation.BEGINRO
+                    || cmd.getOperation() == Operation.BEGINSI;
+        }
+
+        private void forgetFinishedTxns() {
+            tm.forgetFinishedTransactions(txnsBegun);
+            Iterator<String> txnIds = txnsBegun.iterator();
+            while (txnIds.hasNext()) {
+                if (tm.getTransaction(txnIds.next()) == null) {
+                    txnIds.remove();
+                }
+            }
+            forgetFinishedAt = Math.max(64, 2 * txnsBegun.size());
+        }
+
+        private void writeError(String why) {
+            byte[] error = ("ERROR " + why + "\n").getBytes(StandardCharsets.US_ASCII);
+            write(error, 0, error.length);
+        }
+
+        public void write(byte[] bytes, int offset, int length) {
+            if (closed) {
+                return;
+            }
+            if (outbound.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * outbound.capacity(),
+                        outbound.position() + length));
+                outbound.flip();
+                larger.put(outbound);
+                outbound = larger;
+            }
+            outbound.put(bytes, offset, length);
+            sessionsWithOutput.add(this);
+        }
+
+        void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            outbound.flip();
+            channel.write(outbound);
+            outbound.compact();
+            //wait for the socket to drain before writing the rest
+            key.interestOps(outbound.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //already gone
+            }
+            for (String txnId : txnsBegun) {
+                tm.abandon(txnId, "its client went away");
+            }
+            //commands the aborts unblocked run now, not on some other client's next line
+            tm.retryWokenCommands();
+            tm.syncLog();
+            tm.forgetFinishedTransactions(txnsBegun);
+            txnsBegun.clear();
+        }
+    }
+}
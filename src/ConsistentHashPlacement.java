@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * Consistent hashing: every site owns virtualNodes points on a hash
+ * ring, and a variable is held by the first replicationFactor distinct
+ * sites found walking clockwise from its hash. Adding or removing a
+ * site only moves the variables next to its points.
+ *
+ * The replica sites of each ring point are computed once, so finding
+ * a replica is a binary search over the ring; memory is proportional
+ * to the number of ring points, not of variables.
+ */
+public class ConsistentHashPlacement implements PlacementStrategy {
+    static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    //Hash of each ring point, ascending
+    private final int[] ringHashes;
+    //Replica sites of the variables hashing to each ring point, replicationFactor per point
+    private final int[] ringReplicas;
+    private final int replicationFactor;
+
+    public ConsistentHashPlacement(int siteCount, int replicationFactor) {
+        this(siteCount, replicationFactor, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashPlacement(int siteCount, int replicationFactor, int virtualNodes) {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor must be at least 1");
+        }
+        this.replicationFactor = Math.min(replicationFactor, siteCount);
+        int points = siteCount * virtualNodes;
+        //hash in the high half, site in the low half, so sorting orders the ring
+        long[] ring = new long[points];
+        for (int site = 1; site <= siteCount; site ++) {
+            for (int node = 0; node < virtualNodes; node ++) {
+                int hash = hash(((long) site << 32) | node);
+                ring[(site - 1) * virtualNodes + node] = ((long) hash << 32) | site;
+            }
+        }
+        Arrays.sort(ring);
+
+        ringHashes = new int[points];
+        ringReplicas = new int[points * this.replicationFactor];
+        boolean[] taken = new boolean[siteCount + 1];
+        for (int point = 0; point < points; point ++) {
+            ringHashes[point] = (int) (ring[point] >> 32);
+            int found = 0;
+            for (int next = point; found < this.replicationFactor; next = (next + 1) % points) {
+                int site = (int) ring[next];
+                if (!taken[site]) {
+                    taken[site] = true;
+                    ringReplicas[point * this.replicationFactor + found ++] = site;
+                }
+            }
+            for (int i = 0; i < found; i ++) {
+                taken[ringReplicas[point * this.replicationFactor + i]] = false;
+            }
+        }
+    }
+
+    /** 64-bit mix (from SplitMix64), folded to an int */
+    private static int hash(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        key = key ^ (key >>> 31);
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /** First ring point at or after the variable's hash, wrapping around */
+    private int pointOf(int variable) {
+        int point = Arrays.binarySearch(ringHashes, hash(variable));
+        if (point < 0) {
+            point = -point - 1;
+        }
+        return point == ringHashes.length ? 0 : point;
+    }
+
+    public int replicaCount(int variable) {
+        return replicationFactor;
+    }
+
+    public int replicaAt(int variable, int index) {
+        return ringReplicas[pointOf(variable) * replicationFactor + index];
+    }
+
+    public boolean isReplicated(int variable) {
+        return replicationFactor > 1;
+    }
+}
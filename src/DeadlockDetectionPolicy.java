@@ -0,0 +1,52 @@
+import java.util.List;
+
+/**
+ * Deadlock detection: a txn waits for any lock it needs, and only an
+ * actual deadlock - a cycle in the waits-for graph - aborts a txn.
+ * The victim is the txn on the cycle that has done the least work
+ * (reads and writes), so the least work is thrown away; ties go to
+ * the youngest.
+ */
+public class DeadlockDetectionPolicy implements DeadlockPolicy {
+    private final WaitsForGraph graph = new WaitsForGraph();
+
+    public Transaction resolveConflict(Transaction requester, Transaction holder, Command cmd) {
+        List<Transaction> cycle = graph.addEdge(requester, cmd, holder);
+        if (cycle == null) {
+            return null;
+        }
+        Transaction victim = cycle.get(0);
+        for (Transaction txn : cycle) {
+            if (txn.getWorkDone() < victim.getWorkDone()
+                    || (txn.getWorkDone() == victim.getWorkDone() && txn.isYoungerThan(victim))) {
+                victim = txn;
+            }
+        }
+        if (victim == requester) {
+            graph.removeCommand(requester, cmd);
+        }
+        return victim;
+    }
+
+    public void stopWaiting(Transaction requester, Command cmd) {
+        graph.removeCommand(requester, cmd);
+    }
+
+    public void finished(Transaction txn) {
+        graph.removeTransaction(txn);
+    }
+
+    public String reasonForAbort(Transaction victim, Transaction requester, Transaction holder) {
+        return "Transaction " + victim.getId() +
+                " was aborted (deadlock detection) because it did the least work" +
+                " in a cycle of transactions waiting on each other's locks";
+    }
+
+    public AbortCause getAbortCause() {
+        return AbortCause.DEADLOCK;
+    }
+
+    public String getName() {
+        return "detection";
+    }
+}
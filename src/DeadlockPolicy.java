@@ -0,0 +1,33 @@
+/**
+ * Decides what happens when a RW txn needs a lock another txn
+ * holds: the requester waits, it aborts, or another txn aborts.
+ *
+ * Called with the latch of the variable held (see EngineLatches),
+ * possibly from several threads at once, so implementations must be
+ * thread-safe. The TM only requests the aborts chosen here; they
+ * finish once the latch is let go.
+ */
+public interface DeadlockPolicy {
+
+    /**
+     * cmd of requester is blocked by a lock held by holder.
+     * @return the txn to abort: requester, which gives up cmd; another
+     *         txn, whose abort releases the locks requester waits for;
+     *         or null for requester to wait
+     */
+    Transaction resolveConflict(Transaction requester, Transaction holder, Command cmd);
+
+    /** cmd of requester is being run again or gave up, so waits no longer */
+    void stopWaiting(Transaction requester, Command cmd);
+
+    /** txn has committed or aborted */
+    void finished(Transaction txn);
+
+    /** Printed when victim is aborted by resolveConflict(requester, holder, ...) */
+    String reasonForAbort(Transaction victim, Transaction requester, Transaction holder);
+
+    AbortCause getAbortCause();
+
+    /** As selected by -Ddb.deadlock, eg. "wait-die" */
+    String getName();
+}
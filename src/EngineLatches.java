@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Short-term latches that let several threads execute
+ * commands on the TransactionManager at once. These protect
+ * the engine's data structures; they are not the 2PL locks
+ * transactions hold (see LockHeader).
+ *
+ * Everything about one variable - its lock table entries,
+ * wait queues and version chains at every site holding it -
+ * is guarded by the variable's stripe. Reads, writes and
+ * commits hold the shared site latch plus the stripes of the
+ * variables they touch, taken in increasing stripe order so
+ * latching itself cannot deadlock. Site failure, recovery,
+ * dumps and version collection take the site latch exclusively.
+ */
+public class EngineLatches {
+    static final int STRIPES = 64;
+
+    private final ReentrantReadWriteLock siteLatch;
+    private final ReentrantLock[] stripes;
+
+    public EngineLatches() {
+        siteLatch = new ReentrantReadWriteLock();
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i ++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private static int stripeOf(int variable) {
+        return variable & (STRIPES - 1);
+    }
+
+    public void lockExclusive() {
+        siteLatch.writeLock().lock();
+    }
+
+    public void unlockExclusive() {
+        siteLatch.writeLock().unlock();
+    }
+
+    /** Shared site latch plus the stripe of one variable */
+    public void lockVariable(int variable) {
+        siteLatch.readLock().lock();
+        stripes[stripeOf(variable)].lock();
+    }
+
+    public void unlockVariable(int variable) {
+        stripes[stripeOf(variable)].unlock();
+        siteLatch.readLock().unlock();
+    }
+
+    /**
+     * Shared site latch plus the stripes of all the given variables
+     * @return the stripes taken, to be passed to unlockVariables
+     */
+    public int[] lockVariables(int[] variables) {
+        int[] taken = new int[variables.length];
+        for (int i = 0; i < variables.length; i ++) {
+            taken[i] = stripeOf(variables[i]);
+        }
+        Arrays.sort(taken);
+        int distinct = 0;
+        for (int i = 0; i < taken.length; i ++) {
+            if (i == 0 || taken[i] != taken[i - 1]) {
+                taken[distinct ++] = taken[i];
+            }
+        }
+        taken = Arrays.copyOf(taken, distinct);
+
+        siteLatch.readLock().lock();
+        for (int stripe : taken) {
+            stripes[stripe].lock();
+        }
+        return taken;
+    }
+
+    public void unlockVariables(int[] taken) {
+        for (int i = taken.length - 1; i >= 0; i --) {
+            stripes[taken[i]].unlock();
+        }
+        siteLatch.readLock().unlock();
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms updated by the TransactionManager
+ * as it executes commands. Safe to update from several threads;
+ * report() is a best-effort snapshot, not an atomic one.
+ */
+public class EngineMetrics {
+    //Time to execute a command that completed, by kind of command
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram roReadLatency = new LatencyHistogram();
+    private final LatencyHistogram siReadLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    //Time a write or commit reaching several replicas spent doing the work at them
+    private final LatencyHistogram writeFanOut = new LatencyHistogram();
+    private final LatencyHistogram commitFanOut = new LatencyHistogram();
+    //Time from a command first blocking (on a lock or a failed site) until it ran
+    private final LatencyHistogram blockedTime = new LatencyHistogram();
+
+    private final AtomicLongArray aborts = new AtomicLongArray(AbortCause.values().length);
+    private final AtomicLong commits = new AtomicLong();
+
+    //Pending list depth, sampled once per tick
+    private final AtomicLong pendingDepth = new AtomicLong();
+    private final AtomicLong maxPendingDepth = new AtomicLong();
+    private final AtomicLong pendingDepthTotal = new AtomicLong();
+    private final AtomicLong pendingDepthSamples = new AtomicLong();
+
+    //Old versions dropped by the version collector
+    private final AtomicLong versionsReclaimed = new AtomicLong();
+
+    //Per site: reads served and writes applied (uncommitted and committed)
+    private final AtomicLongArray siteReads;
+    private final AtomicLongArray siteWrites;
+
+    public EngineMetrics(int siteSlots) {
+        siteReads = new AtomicLongArray(siteSlots);
+        siteWrites = new AtomicLongArray(siteSlots);
+    }
+
+    public void recordLatency(Operation operation, TransactionType type, long nanos) {
+        switch (operation) {
+            case READ:
+                if (type == TransactionType.READONLY) {
+                    roReadLatency.record(nanos);
+                } else if (type == TransactionType.SNAPSHOT) {
+                    siReadLatency.record(nanos);
+                } else {
+                    readLatency.record(nanos);
+                }
+                break;
+            case WRITE:
+                writeLatency.record(nanos);
+                break;
+            case END:
+                commitLatency.record(nanos);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void recordWriteFanOut(long nanos) {
+        writeFanOut.record(nanos);
+    }
+
+    public void recordCommitFanOut(long nanos) {
+        commitFanOut.record(nanos);
+    }
+
+    public void recordBlockedTime(long nanos) {
+        blockedTime.record(nanos);
+    }
+
+    public void recordAbort(AbortCause cause) {
+        aborts.incrementAndGet(cause.ordinal());
+    }
+
+    public long getAborts(AbortCause cause) {
+        return aborts.get(cause.ordinal());
+    }
+
+    public void recordCommit() {
+        commits.incrementAndGet();
+    }
+
+    /** Aborts of every cause per committed txn; the work thrown away per unit of work kept */
+    public double getAbortsPerCommit() {
+        long total = 0;
+        for (AbortCause cause : AbortCause.values()) {
+            total += getAborts(cause);
+        }
+        return (double) total / Math.max(1, commits.get());
+    }
+
+    public void recordPendingDepth(int depth) {
+        pendingDepth.set(depth);
+        pendingDepthTotal.addAndGet(depth);
+        pendingDepthSamples.incrementAndGet();
+        long currentMax = maxPendingDepth.get();
+        while (depth > currentMax && !maxPendingDepth.compareAndSet(currentMax, depth)) {
+            currentMax = maxPendingDepth.get();
+        }
+    }
+
+    public void recordVersionsReclaimed(int versions) {
+        versionsReclaimed.addAndGet(versions);
+    }
+
+    public long getVersionsReclaimed() {
+        return versionsReclaimed.get();
+    }
+
+    public void recordSiteRead(int siteId) {
+        siteReads.incrementAndGet(siteId);
+    }
+
+    /** Reads served by the site so far */
+    public long getSiteReads(int siteId) {
+        return siteReads.get(siteId);
+    }
+
+    public void recordSiteWrite(int siteId) {
+        siteWrites.incrementAndGet(siteId);
+    }
+
+    /**
+     * Everything measured so far, one metric per line
+     * @param sites their version counts, kept as versions are added and
+     *              collected, so nothing has to be held still
+     */
+    public String report(int time, Site[] sites) {
+        StringBuilder report = new StringBuilder();
+        report.append("Metrics at time ").append(time).append('\n');
+        report.append("  read: ").append(readLatency.summary()).append('\n');
+        report.append("  RO read: ").append(roReadLatency.summary()).append('\n');
+        report.append("  SI read: ").append(siReadLatency.summary()).append('\n');
+        report.append("  write: ").append(writeLatency.summary()).append('\n');
+        report.append("  commit: ").append(commitLatency.summary()).append('\n');
+        report.append("  write fan-out: ").append(writeFanOut.summary()).append('\n');
+        report.append("  commit fan-out: ").append(commitFanOut.summary()).append('\n');
+        report.append("  blocked: ").append(blockedTime.summary()).append('\n');
+
+        report.append("  aborts:");
+        for (AbortCause cause : AbortCause.values()) {
+            report.append(' ').append(cause.name().toLowerCase().replace('_', '-'))
+                    .append(" = ").append(getAborts(cause));
+        }
+        report.append(String.format(", commits = %d, aborts per commit = %.3f%n",
+                commits.get(), getAbortsPerCommit()));
+
+        long samples = pendingDepthSamples.get();
+        report.append(String.format("  pending commands: now = %d, max = %d, mean = %.2f%n",
+                pendingDepth.get(), maxPendingDepth.get(),
+                samples == 0 ? 0 : (double) pendingDepthTotal.get() / samples));
+
+        long versions = 0;
+        long chains = 0;
+        int longestChain = 0;
+        for (Site site : sites) {
+            if (site == null) {
+                continue;
+            }
+            versions += site.getVersionCount();
+            chains += site.getVariables().length;
+            longestChain = Math.max(longestChain, site.getLongestChain());
+        }
+        report.append(String.format("  version chains: versions = %d, mean length = %.2f, peak length = %d%n",
+                versions, chains == 0 ? 0 : (double) versions / chains, longestChain));
+        report.append(String.format("  versions reclaimed = %d (~%d bytes)%n",
+                versionsReclaimed.get(), versionsReclaimed.get() * VersionChain.BYTES_PER_VERSION));
+
+        report.append("  site load (reads/writes):");
+        for (int siteId = 0; siteId < siteReads.length(); siteId ++) {
+            if (siteId < sites.length && sites[siteId] == null) {
+                continue;
+            }
+            report.append(' ').append(siteId).append(": ").append(siteReads.get(siteId))
+                    .append('/').append(siteWrites.get(siteId));
+        }
+        report.append('\n');
+        return report.toString();
+    }
+}
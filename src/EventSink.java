@@ -0,0 +1,17 @@
+/**
+ * Receives what the engine reports as it executes commands:
+ * values read, commits, aborts, dumps. Events are published as
+ * fields, not text, so a sink that discards them never pays for
+ * formatting; a sink that shows them formats them with EventType.
+ *
+ * publish() may be called from several threads at once. Events
+ * published by one thread are seen in the order it published them.
+ */
+public interface EventSink {
+
+    /** See EventType for which fields each kind of event uses */
+    void publish(EventType type, String txnId, int variable, int value, int siteId, String text);
+
+    /** Return once every event published so far has been written out */
+    void flush();
+}
@@ -0,0 +1,69 @@
+/**
+ * Kinds of events the engine reports, each with its text form.
+ * An event is published as fields (see EventSink) and only turned
+ * into text by a sink that shows it; fields a kind does not use
+ * are ignored.
+ */
+public enum EventType {
+    /** Committed value read by a txn */
+    VALUE_READ {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Value of ").append(VariableCatalog.nameOf(variable)).append(" read by ")
+                    .append(txnId).append(" is ").append(value).append(" at site ").append(siteId).append('\n');
+        }
+    },
+    /** A txn reading back its own uncommitted write */
+    UNCOMMITTED_VALUE_READ {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Value of ").append(VariableCatalog.nameOf(variable)).append(" read by ")
+                    .append(txnId).append(" = ").append(value).append(" at site ").append(siteId).append('\n');
+        }
+    },
+    ALREADY_LOCKED {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Transaction ").append(txnId).append(" already has a lock on variable ")
+                    .append(VariableCatalog.nameOf(variable)).append(" at site ").append(siteId).append('\n');
+        }
+    },
+    /** A replica on a recovered site that has not been written since */
+    CANNOT_READ {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Transaction ").append(txnId).append(" cannot read variable ")
+                    .append(VariableCatalog.nameOf(variable)).append(" at site ").append(siteId)
+                    .append(" because the site was recovered and the")
+                    .append(" replicated data item is yet to be written to.\n");
+        }
+    },
+    COMMITTED {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Transaction ").append(txnId).append(" has committed\n");
+        }
+    },
+    /** text is the reason for the abort */
+    ABORTED {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append(text).append('\n');
+        }
+    },
+    /** Heading of the dump of one site */
+    SITE_DUMP {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Variables on site ").append(siteId).append('\n');
+        }
+    },
+    VARIABLE_DUMP {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append("Variable ").append(VariableCatalog.nameOf(variable)).append(" has value: ")
+                    .append(value).append(" at site ").append(siteId).append('\n');
+        }
+    },
+    /** Text formatted by the publisher, eg. a metrics report; written as is */
+    TEXT {
+        void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text) {
+            out.append(text);
+        }
+    };
+
+    /** Append the text form of an event of this kind to out, newline included */
+    abstract void format(StringBuilder out, String txnId, int variable, int value, int siteId, String text);
+}
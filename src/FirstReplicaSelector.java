@@ -0,0 +1,15 @@
+/**
+ * Always the first replica that can serve the read: the original
+ * behaviour. Every read of a fully replicated variable goes to the
+ * lowest numbered site that is up.
+ */
+public class FirstReplicaSelector implements ReplicaSelector {
+
+    public Site select(Site[] candidates, int count) {
+        return candidates[0];
+    }
+
+    public String getName() {
+        return "first";
+    }
+}
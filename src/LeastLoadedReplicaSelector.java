@@ -0,0 +1,29 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The replica with the fewest locks held on it (see Site.getLocksHeld),
+ * so reads move away from sites busy with long txns. Ties go to the
+ * replicas in turn, or an idle system would send every read to one site.
+ */
+public class LeastLoadedReplicaSelector implements ReplicaSelector {
+    private final AtomicInteger firstToTry = new AtomicInteger();
+
+    public Site select(Site[] candidates, int count) {
+        int start = (firstToTry.getAndIncrement() & Integer.MAX_VALUE) % count;
+        Site best = candidates[start];
+        int bestLoad = best.getLocksHeld();
+        for (int i = 1; i < count && bestLoad > 0; i ++) {
+            Site candidate = candidates[(start + i) % count];
+            int load = candidate.getLocksHeld();
+            if (load < bestLoad) {
+                best = candidate;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    public String getName() {
+        return "least-loaded";
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the CommandServer.
+ *
+ * Each connection runs read-modify-write transactions on its own odd
+ * variable, one line per command, and sends them in pipelined batches:
+ * a whole batch is written before any answer is read, so a batch costs
+ * one round trip instead of one per line.
+ *
+ * Usage: java LoadClient [host] [port] [connections] [seconds] [lines per batch]
+ */
+public class LoadClient {
+    public static void main(String[] args) throws InterruptedException {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : CommandServer.DEFAULT_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+        final int batch = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        connections = Math.min(connections, TransactionManager.DEFAULT_VARIABLE_COUNT / 2);
+
+        final long deadline = System.currentTimeMillis() + (long) (seconds * 1000);
+        final AtomicLong lines = new AtomicLong();
+        final AtomicLong roundTrips = new AtomicLong();
+        Thread[] clients = new Thread[connections];
+        for (int c = 0; c < connections; c ++) {
+            final int client = c;
+            clients[c] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        runClient(host, port, client, batch, deadline, lines, roundTrips);
+                    } catch (IOException e) {
+                        System.err.println("Connection " + client + ": " + e.getMessage());
+                    }
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        System.out.printf("connections = %d, batch = %d: %.0f lines/s, %.0f round trips/s%n",
+                connections, batch, lines.get() / seconds, roundTrips.get() / seconds);
+    }
+
+    private static void runClient(String host, int port, int client, int batch, long deadline,
+                                  AtomicLong lines, AtomicLong roundTrips) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            int var = 1 + 2 * client;
+            ByteBuffer answers = ByteBuffer.allocate(1 << 16);
+            long txnCount = 0;
+            while (System.currentTimeMillis() < deadline) {
+                StringBuilder request = new StringBuilder();
+                int sent = 0;
+                while (sent + 4 <= batch || sent == 0) {
+                    String txn = "C" + client + "_" + txnCount;
+                    request.append("begin(").append(txn).append(")\n");
+                    request.append("R(").append(txn).append(",x").append(var).append(")\n");
+                    request.append("W(").append(txn).append(",x").append(var).append(',')
+                            .append(txnCount).append(")\n");
+                    request.append("end(").append(txn).append(")\n");
+                    sent += 4;
+                    txnCount ++;
+                }
+                ByteBuffer out = ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.US_ASCII));
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                awaitAnswers(channel, answers, sent);
+                lines.addAndGet(sent);
+                roundTrips.incrementAndGet();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Read until the server has answered "OK" to the given number of lines */
+    private static void awaitAnswers(SocketChannel channel, ByteBuffer answers, int expected)
+            throws IOException {
+        int okLines = 0;
+        int lineStart = 0;
+        while (okLines < expected) {
+            if (channel.read(answers) < 0) {
+                throw new IOException("server closed the connection");
+            }
+            int end = answers.position();
+            for (int i = lineStart; i < end; i ++) {
+                if (answers.get(i) != '\n') {
+                    continue;
+                }
+                if (i - lineStart == 2 && answers.get(lineStart) == 'O' && answers.get(lineStart + 1) == 'K') {
+                    okLines ++;
+                }
+                lineStart = i + 1;
+            }
+            //keep only the incomplete last line
+            answers.flip();
+            answers.position(lineStart);
+            answers.compact();
+            lineStart = 0;
+        }
+        answers.clear();
+    }
+}
@@ -8,16 +8,16 @@
 public class Lock {
     private String txnIdHoldingLock;
     private int siteIdOnWhichLockExists;
-    private String variableLocked;
+    private int variableLocked;
     private LockType typeOfLock;
 
     /**
      * @param txnID id of the transaction holding this lock
      * @param siteID id of the site on which this lock is held
-     * @param var data item that is locked
+     * @param var id of the data item that is locked
      * @param locktype write or read lock
      */
-    public Lock(String txnID, int siteID, String var, LockType locktype) {
+    public Lock(String txnID, int siteID, int var, LockType locktype) {
         txnIdHoldingLock = txnID;
         siteIdOnWhichLockExists = siteID;
         variableLocked = var;
@@ -36,10 +36,25 @@ public class Lock {
         return typeOfLock;
     }
 
-    public String getVariableLocked() {
+    /** Turn this read lock into a write lock; see LockHeader.upgrade */
+    void upgradeToWriteLock() {
+        typeOfLock = LockType.WRITELOCK;
+    }
+
+    public int getVariableLocked() {
         return variableLocked;
     }
 
+    /** Key of this lock in the lock set of the transaction holding it */
+    public long getKey() {
+        return keyOf(siteIdOnWhichLockExists, variableLocked);
+    }
+
+    /** A transaction holds at most one lock per (site, variable) pair */
+    public static long keyOf(int siteID, int var) {
+        return ((long) siteID << 32) | (var & 0xffffffffL);
+    }
+
     /**
      * Transaction calls this on abort/commit.
      * Releases this lock on the data item held by
@@ -0,0 +1,116 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lock table entry for one variable on one site.
+ * Holds the write lock (if any) and the read locks
+ * keyed by the id of the transaction holding them,
+ * so granting, checking and releasing a lock is O(1).
+ * Read locks are kept in the order they were granted.
+ * Commands blocked on this variable at this site wait on
+ * the header and are woken whenever a lock is released.
+ *
+ * A reader that wants to write upgrades its read lock in place once
+ * it is the only reader. Until then its upgrade is queued: it goes
+ * ahead of new read requests, which would otherwise keep it waiting
+ * forever, and a second reader asking to upgrade is deadlocked with it.
+ */
+public class LockHeader {
+    private Lock writeLock;
+    //<TxnID, read lock held by txn>
+    private Map<String, Lock> readLocks;
+    //Reader waiting for the other readers to go so it can upgrade; null if none
+    private String queuedUpgrade;
+    private WaitQueue waiters;
+
+    public LockHeader(PendingCommands pendingCommands) {
+        readLocks = new LinkedHashMap<String, Lock>();
+        waiters = new WaitQueue(pendingCommands);
+    }
+
+    public WaitQueue getWaiters() {
+        return waiters;
+    }
+
+    public Lock getWriteLock() {
+        return writeLock;
+    }
+
+    public boolean isWriteLocked() {
+        return writeLock != null;
+    }
+
+    public Collection<Lock> getReadLocks() {
+        return readLocks.values();
+    }
+
+    public int getReaderCount() {
+        return readLocks.size();
+    }
+
+    /** @return the read lock txnId holds here, null if it holds none */
+    public Lock getReadLock(String txnId) {
+        return readLocks.get(txnId);
+    }
+
+    /** @return id of the reader waiting to upgrade, null if none */
+    public String getQueuedUpgrade() {
+        return queuedUpgrade;
+    }
+
+    /** txnId holds a read lock here and waits for the other readers to upgrade it */
+    public void queueUpgrade(String txnId) {
+        queuedUpgrade = txnId;
+    }
+
+    /** True if readLock is the only lock held here, so it can be upgraded */
+    public boolean canUpgrade(Lock readLock) {
+        return writeLock == null && readLocks.size() == 1
+                && readLocks.get(readLock.getTxnIdHoldingLock()) == readLock;
+    }
+
+    /**
+     * Convert the sole read lock into the write lock, keeping the same
+     * Lock object (and its place in the txn's lock set). Nobody is woken:
+     * the lock only got stronger.
+     */
+    public void upgrade(Lock readLock) {
+        readLocks.remove(readLock.getTxnIdHoldingLock());
+        readLock.upgradeToWriteLock();
+        writeLock = readLock;
+        if (readLock.getTxnIdHoldingLock().equals(queuedUpgrade)) {
+            queuedUpgrade = null;
+        }
+    }
+
+    public boolean isFree() {
+        return writeLock == null && readLocks.isEmpty();
+    }
+
+    public void add(Lock lock) {
+        if (lock.getTypeOfLock() == LockType.WRITELOCK) {
+            writeLock = lock;
+        } else {
+            readLocks.put(lock.getTxnIdHoldingLock(), lock);
+        }
+    }
+
+    /** @return false if lock was not held here */
+    public boolean remove(Lock lock) {
+        boolean removed = false;
+        if (lock.getTypeOfLock() == LockType.WRITELOCK) {
+            if (writeLock == lock) {
+                writeLock = null;
+                removed = true;
+            }
+        } else {
+            removed = readLocks.remove(lock.getTxnIdHoldingLock(), lock);
+            if (lock.getTxnIdHoldingLock().equals(queuedUpgrade)) {
+                queuedUpgrade = null;
+            }
+        }
+        waiters.wakeAll();
+        return removed;
+    }
+}
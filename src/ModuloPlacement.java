@@ -0,0 +1,26 @@
+/**
+ * The original placement: even-indexed variables are replicated at
+ * every site, odd-indexed variable xi is at site 1 + (i % site count).
+ */
+public class ModuloPlacement implements PlacementStrategy {
+    private final int siteCount;
+
+    public ModuloPlacement(int siteCount) {
+        this.siteCount = siteCount;
+    }
+
+    public int replicaCount(int variable) {
+        return isReplicated(variable) ? siteCount : 1;
+    }
+
+    public int replicaAt(int variable, int index) {
+        if (isReplicated(variable)) {
+            return 1 + index;
+        }
+        return 1 + (variable % siteCount);
+    }
+
+    public boolean isReplicated(int variable) {
+        return (variable % 2) == 0;
+    }
+}
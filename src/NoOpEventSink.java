@@ -0,0 +1,12 @@
+/**
+ * Discards every event, eg. for benchmarks that only
+ * measure the engine. The TM's sink until another is set.
+ */
+public class NoOpEventSink implements EventSink {
+
+    public void publish(EventType type, String txnId, int variable, int value, int siteId, String text) {
+    }
+
+    public void flush() {
+    }
+}
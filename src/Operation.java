@@ -2,5 +2,5 @@
  * Type of command
  */
 public enum Operation {
-    READ, WRITE, BEGIN, BEGINRO, RECOVER, FAIL, END, DUMP;
+    READ, WRITE, BEGIN, BEGINRO, BEGINSI, RECOVER, FAIL, END, DUMP, STATS;
 }
@@ -0,0 +1,116 @@
+import java.util.*;
+
+/**
+ * Commands that could not run when they were issued
+ * (waiting on a lock or on a failed site).
+ *
+ * A blocked command is parked on the WaitQueue of the resource it
+ * needs and is only retried once that resource changes: a lock on
+ * the variable is released or the site recovers. Woken commands are
+ * retried at the end of the tick in the order they first blocked.
+ * A command woken during a round behind the one currently being
+ * retried waits for the next round, as it would if the whole pending
+ * list were rescanned once per tick.
+ *
+ * Thread-safe. A command must be parked while the caller holds
+ * the latch guarding the resource (see EngineLatches), so it
+ * cannot miss a wakeup.
+ */
+public class PendingCommands {
+    private long nextSequence = 0;
+    //Every blocked command, in the order it first blocked
+    private Set<Command> pending;
+    //Commands woken since they were last retried, oldest first
+    private PriorityQueue<Command> ready;
+    //Woken during the current round, but behind the command being retried
+    private List<Command> readyNextRound;
+    private boolean inRound = false;
+    private long roundCursor;
+
+    public PendingCommands() {
+        pending = new LinkedHashSet<Command>();
+        ready = new PriorityQueue<Command>(11, new Comparator<Command>() {
+            public int compare(Command c1, Command c2) {
+                return Long.compare(c1.getPendingSequence(), c2.getPendingSequence());
+            }
+        });
+        readyNextRound = new ArrayList<Command>();
+    }
+
+    /** Block cmd until queue is woken */
+    public void waitOn(Command cmd, WaitQueue queue) {
+        register(cmd);
+        queue.park(cmd);
+    }
+
+    private synchronized void register(Command cmd) {
+        if (!cmd.isInPendingList()) {
+            cmd.setInPendingList(true);
+            cmd.setPendingSequence(nextSequence ++);
+            cmd.setBlockedAtNanos(System.nanoTime());
+            pending.add(cmd);
+        }
+    }
+
+    public synchronized void removeIfPresent(Command cmd) {
+        if (cmd.isInPendingList()) {
+            cmd.setInPendingList(false);
+            pending.remove(cmd);
+        }
+        //dropped before it was retried
+        if (cmd.isReady()) {
+            cmd.setReady(false);
+            ready.remove(cmd);
+            readyNextRound.remove(cmd);
+        }
+    }
+
+    /** Called by a WaitQueue when the resource cmd is waiting on has changed */
+    synchronized void makeReady(Command cmd) {
+        if (!cmd.isInPendingList() || cmd.isReady()) {
+            return;
+        }
+        cmd.setReady(true);
+        if (inRound && cmd.getPendingSequence() <= roundCursor) {
+            readyNextRound.add(cmd);
+        } else {
+            ready.add(cmd);
+        }
+    }
+
+    /** Start retrying woken commands */
+    public synchronized void beginRound() {
+        inRound = true;
+        roundCursor = -1;
+    }
+
+    /** @return next woken command to retry in this round, null when round is done */
+    public synchronized Command nextReady() {
+        Command cmd = ready.poll();
+        if (cmd == null) {
+            return null;
+        }
+        cmd.setReady(false);
+        roundCursor = cmd.getPendingSequence();
+        return cmd;
+    }
+
+    public synchronized void endRound() {
+        inRound = false;
+        ready.addAll(readyNextRound);
+        readyNextRound.clear();
+    }
+
+    public synchronized boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /** Snapshot of the blocked commands */
+    public synchronized List<Command> getPendingCommands() {
+        return new ArrayList<Command>(pending);
+    }
+}
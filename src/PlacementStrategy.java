@@ -0,0 +1,26 @@
+/**
+ * Decides which sites hold each variable. Sites are numbered
+ * 1..site count and variables 1..variable count.
+ *
+ * Locations are computed on demand from a few parameters, so
+ * the TM keeps no per-variable list of sites. Every call for
+ * the same variable must give the same answer.
+ */
+public interface PlacementStrategy {
+
+    /** Number of sites holding the variable, at least 1 */
+    int replicaCount(int variable);
+
+    /**
+     * The index-th site holding the variable, 0 <= index < replicaCount.
+     * Reads are served by one of these sites that is up, chosen by
+     * the TM's ReplicaSelector.
+     */
+    int replicaAt(int variable, int index);
+
+    /**
+     * A replicated variable on a recovered site is not readable
+     * until a committed write has reached it there (available copies).
+     */
+    boolean isReplicated(int variable);
+}
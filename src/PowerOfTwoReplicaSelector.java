@@ -0,0 +1,24 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices: the less loaded of two replicas picked at
+ * random. Nearly as even as looking at every replica, but reads only
+ * two sites' load, and concurrent reads do not all pile onto the same
+ * least loaded site.
+ */
+public class PowerOfTwoReplicaSelector implements ReplicaSelector {
+
+    public Site select(Site[] candidates, int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(count);
+        //any other candidate, uniformly
+        int second = (first + 1 + random.nextInt(count - 1)) % count;
+        Site a = candidates[first];
+        Site b = candidates[second];
+        return b.getLocksHeld() < a.getLocksHeld() ? b : a;
+    }
+
+    public String getName() {
+        return "power-of-two";
+    }
+}
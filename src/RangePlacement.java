@@ -0,0 +1,36 @@
+/**
+ * Range partitioning: the variables are cut into site count
+ * contiguous ranges of (nearly) equal size. Range k starts at
+ * variable 1 + k * variable count / site count, so ranges differ in
+ * size by at most one and every site starts one when there are at
+ * least as many variables as sites. Range k is held by site k + 1 and
+ * replicated on the next replicationFactor - 1 sites.
+ */
+public class RangePlacement implements PlacementStrategy {
+    private final int siteCount;
+    private final int variableCount;
+    private final int replicationFactor;
+
+    public RangePlacement(int siteCount, int variableCount, int replicationFactor) {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor must be at least 1");
+        }
+        this.siteCount = siteCount;
+        this.variableCount = variableCount;
+        this.replicationFactor = Math.min(replicationFactor, siteCount);
+    }
+
+    public int replicaCount(int variable) {
+        return replicationFactor;
+    }
+
+    public int replicaAt(int variable, int index) {
+        //the last range starting at or before the variable
+        int range = (int) (((long) variable * siteCount - 1) / variableCount);
+        return 1 + (range + index) % siteCount;
+    }
+
+    public boolean isReplicated(int variable) {
+        return replicationFactor > 1;
+    }
+}
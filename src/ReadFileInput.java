@@ -1,17 +1,53 @@
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Class to handle input of commands read in from file.
  * Stores the command in a Command object that it returns
  * to the TransactionManager for appropriate processing.
+ *
+ * Input is parsed byte by byte straight out of a read buffer,
+ * so a trace of any size can be streamed (from a file or stdin)
+ * without regexes or intermediate strings. The only objects
+ * created per command are the Command itself and, on a cache
+ * miss, the transaction id.
  */
 public class ReadFileInput {
+    private static final int BUFFER_SIZE = 1 << 16;
+    //Recently seen transaction ids; direct-mapped, so memory stays bounded
+    private static final int TXN_ID_CACHE_SIZE = 4096;
 
-    private Scanner scan;
+    private static final byte[] BEGIN = {'b', 'e', 'g', 'i', 'n'};
+    private static final byte[] BEGINRO = {'b', 'e', 'g', 'i', 'n', 'R', 'O'};
+    private static final byte[] BEGINSI = {'b', 'e', 'g', 'i', 'n', 'S', 'I'};
+    private static final byte[] END = {'e', 'n', 'd'};
+    private static final byte[] FAIL = {'f', 'a', 'i', 'l'};
+    private static final byte[] RECOVER = {'r', 'e', 'c', 'o', 'v', 'e', 'r'};
+    private static final byte[] READ = {'R'};
+    private static final byte[] WRITE = {'W'};
+    private static final byte[] DUMP = {'d', 'u', 'm', 'p'};
+    private static final byte[] STATS = {'s', 't', 'a', 't', 's'};
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+    private long lineNumber = 0;
+
+    //Scratch space for the word being parsed
+    private byte[] word = new byte[16];
+    private int wordLength;
+
+    private final String[] txnIdCache = new String[TXN_ID_CACHE_SIZE];
+    private final List<Command> commandsOnLine = new ArrayList<Command>();
 
     /**
      * Constructor for the class.
@@ -19,113 +55,293 @@ public class ReadFileInput {
      * file containing the input
      */
     public ReadFileInput(String filePath) throws FileNotFoundException {
-        scan = new Scanner(new File(filePath));
+        this(new FileInputStream(filePath));
+    }
+
+    /** Read commands from a stream, eg. System.in */
+    public ReadFileInput(InputStream input) {
+        in = input;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Parse commands out of bytes already in memory, eg. a network
+     * buffer. Hand over each chunk of complete lines with reset().
+     */
+    public ReadFileInput() {
+        in = null;
+        buffer = new byte[0];
+        endOfInput = true;
+    }
+
+    /** Parse the lines in bytes[offset, offset + length) next; bytes are not copied */
+    public void reset(byte[] bytes, int offset, int length) {
+        buffer = bytes;
+        position = offset;
+        limit = offset + length;
     }
 
     public boolean hasNextLine() {
-        return scan.hasNextLine();
+        return peek() != -1;
     }
 
+    /**
+     * @return the commands on the next line of input. The list is
+     * reused by the next call; the commands in it are not.
+     */
     public List<Command> getLineAsCommands() {
-        while (scan.hasNextLine()) {
-            String line = scan.nextLine();
-            List<Command> commandsForCurrentLine =
-                    parseCurrentLineIntoCommands(line);
-            return commandsForCurrentLine;
+        if (!hasNextLine()) {
+            return null;
         }
-        return null;
+        parseCurrentLineIntoCommands();
+        return commandsOnLine;
     }
 
     /**
-     * returns the contemporaneous events (on the same line of input)
-     * as individual commands to the TM in the following steps:
-     * 1. break up line into contemporaneous command strings
-     * 2. remove all whitespaces in each command string
-     * 3. find which constructor this command should invoke
-     *      - for begin, first check if it matches beginRO
-     * 4. call the constructor with the appropriate values
+     * Reads the contemporaneous events (on the same line of input)
+     * as individual commands for the TM:
+     * 1. read the command name up to '(' (whitespace is ignored throughout)
+     * 2. read the arguments the command takes, separated by ','
+     * 3. call the appropriate Command constructor
      *      - for writes, also set write value
-     * 5. accumulate the commands in a List and return List
-     *
-     * As test input commands follow an established pattern
-     * (eg. W(T1,x2,1)), some numbers have been hardcoded
+     * 4. skip to the next command after ';', or the end of the line
+     * A '/' or '#' starts a comment that runs to the end of the line,
+     * eg. "// Test 1" on a line of its own. Any other text that is not
+     * a command is an error.
      */
-    private List<Command> parseCurrentLineIntoCommands(String line) {
-        String[] commandStrings = line.split("; ");
-        List<Command> commandsOnLine = new ArrayList<Command>();
-        for (String cmd : commandStrings) {
-            cmd = cmd.replaceAll("\\s+","");
-            //find which command cmd corresponds to
-            switch (cmd.charAt(0)) {
-                case 'b':
-                    Command command;
-                    if (cmd.contains("RO")) {
-                        String txn = cmd.substring(8, cmd.length() - 1);
-                        command = new Command(Operation.BEGINRO, txn);
-                    } else {
-                        String txn = cmd.substring(6, cmd.length() - 1);
-                        command = new Command(Operation.BEGIN, txn);
-                    }
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'e':
-                    String txn = cmd.substring(4, cmd.length() - 1);
-                    command = new Command(Operation.END, txn);
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'f':
-                    String siteToFail = cmd.substring(5, cmd.length() - 1);
-                    command = new Command(Operation.FAIL, Integer.parseInt(siteToFail));
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'r':
-                    String siteToRecover = cmd.substring(8, cmd.length() - 1);
-                    command = new Command(Operation.RECOVER, Integer.parseInt(siteToRecover));
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'R':
-                    String information = cmd.substring(2, cmd.length() - 1);
-                    String[] parts = information.split(",");
-                    txn = parts[0];
-                    String var = parts[1];
-                    command = new Command(Operation.READ, txn, var);
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'W':
-                    information = cmd.substring(2, cmd.length() - 1);
-                    parts = information.split(",");
-                    txn = parts[0];
-                    var = parts[1];
-                    String val = parts[2];
-                    command = new Command(Operation.WRITE, txn, var);
-                    command.setToWriteValue(Integer.parseInt(val));
-                    commandsOnLine.add(command);
-                    break;
-
-                case 'd':
-                    if (cmd.length() == 6) {
-                        command = new Command(Operation.DUMP, DumpType.NONE, 0);
-                    } else if (cmd.contains("x")) {
-                        var = cmd.substring(6, cmd.length() - 1);
-                        int varNum = Integer.parseInt(var);
-                        command = new Command(Operation.DUMP, DumpType.VARIABLE, varNum);
-                    } else {
-                        String site = cmd.substring(5, cmd.length() - 1);
-                        int siteNum = Integer.parseInt(site);
-                        command = new Command(Operation.DUMP, DumpType.SITE, siteNum);
-                    }
-
-                    commandsOnLine.add(command);
-                    break;
+    private void parseCurrentLineIntoCommands() {
+        commandsOnLine.clear();
+        lineNumber ++;
+        while (true) {
+            skipWhitespace();
+            int c = peek();
+            if (c == -1) {
+                return;
             }
+            if (c == '\n') {
+                position ++;
+                return;
+            }
+            if (c == ';') {
+                position ++;
+                continue;
+            }
+            if (c == '/' || c == '#') {
+                skipRestOfLine();
+                return;
+            }
+            commandsOnLine.add(parseCommand());
         }
-        return commandsOnLine;
     }
 
+    /** After a malformed line, resume at the start of the next one */
+    public void skipRestOfLine() {
+        int c = peek();
+        while (c != -1 && c != '\n') {
+            position ++;
+            c = peek();
+        }
+        if (c == '\n') {
+            position ++;
+        }
+    }
+
+    private Command parseCommand() {
+        readWord();
+        expect('(');
+        Command command;
+        if (wordIs(BEGINRO)) {
+            command = new Command(Operation.BEGINRO, readTxnId());
+        } else if (wordIs(BEGINSI)) {
+            command = new Command(Operation.BEGINSI, readTxnId());
+        } else if (wordIs(BEGIN)) {
+            command = new Command(Operation.BEGIN, readTxnId());
+        } else if (wordIs(END)) {
+            command = new Command(Operation.END, readTxnId());
+        } else if (wordIs(FAIL)) {
+            command = new Command(Operation.FAIL, readInt());
+        } else if (wordIs(RECOVER)) {
+            command = new Command(Operation.RECOVER, readInt());
+        } else if (wordIs(READ)) {
+            String txn = readTxnId();
+            expect(',');
+            command = new Command(Operation.READ, txn, readVariable());
+        } else if (wordIs(WRITE)) {
+            String txn = readTxnId();
+            expect(',');
+            command = new Command(Operation.WRITE, txn, readVariable());
+            expect(',');
+            command.setToWriteValue(readInt());
+        } else if (wordIs(DUMP)) {
+            skipWhitespace();
+            int c = peek();
+            if (c == ')') {
+                command = new Command(Operation.DUMP, DumpType.NONE, 0);
+            } else if (c == 'x') {
+                command = new Command(Operation.DUMP, DumpType.VARIABLE, readVariable());
+            } else {
+                command = new Command(Operation.DUMP, DumpType.SITE, readInt());
+            }
+        } else if (wordIs(STATS)) {
+            command = new Command(Operation.STATS);
+        } else {
+            throw error("unknown command");
+        }
+        expect(')');
+        return command;
+    }
+
+    /** Command name, into word */
+    private void readWord() {
+        skipWhitespace();
+        wordLength = 0;
+        int c = peek();
+        while ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            if (wordLength == word.length) {
+                throw error("command name too long");
+            }
+            word[wordLength ++] = (byte) c;
+            position ++;
+            c = peek();
+        }
+    }
 
+    private boolean wordIs(byte[] name) {
+        if (wordLength != name.length) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i ++) {
+            if (word[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readTxnId() {
+        skipWhitespace();
+        wordLength = 0;
+        int hash = 0;
+        int c = peek();
+        while (c != -1 && c != ',' && c != ')' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+            if (wordLength == word.length) {
+                word = Arrays.copyOf(word, 2 * word.length);
+            }
+            word[wordLength ++] = (byte) c;
+            hash = 31 * hash + c;
+            position ++;
+            c = peek();
+        }
+        if (wordLength == 0) {
+            throw error("missing transaction id");
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TXN_ID_CACHE_SIZE - 1);
+        String cached = txnIdCache[slot];
+        if (cached != null && sameAsWord(cached)) {
+            return cached;
+        }
+        String txnId = new String(word, 0, wordLength, StandardCharsets.US_ASCII);
+        txnIdCache[slot] = txnId;
+        return txnId;
+    }
+
+    private boolean sameAsWord(String s) {
+        if (s.length() != wordLength) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i ++) {
+            if (s.charAt(i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Variable name, eg. x12, as its id (see VariableCatalog) */
+    private int readVariable() {
+        skipWhitespace();
+        if (peek() != 'x') {
+            throw error("expected a variable");
+        }
+        position ++;
+        return readDigits();
+    }
+
+    private int readInt() {
+        skipWhitespace();
+        if (peek() == '-') {
+            position ++;
+            return (int) -readDigits(-(long) Integer.MIN_VALUE);
+        }
+        return readDigits();
+    }
+
+    private int readDigits() {
+        return (int) readDigits(Integer.MAX_VALUE);
+    }
+
+    /** A number no greater than max, rather than one wrapped around to another int */
+    private long readDigits(long max) {
+        int c = peek();
+        if (c < '0' || c > '9') {
+            throw error("expected a number");
+        }
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = 10 * value + (c - '0');
+            if (value > max) {
+                throw error("number out of range");
+            }
+            position ++;
+            c = peek();
+        }
+        return value;
+    }
+
+    private void expect(char expected) {
+        skipWhitespace();
+        if (peek() != expected) {
+            throw error("expected '" + expected + "'");
+        }
+        position ++;
+    }
+
+    /** Spaces, tabs and carriage returns; a newline ends the line */
+    private void skipWhitespace() {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r') {
+            position ++;
+            c = peek();
+        }
+    }
+
+    /** Next byte without consuming it, or -1 at the end of input */
+    private int peek() {
+        if (position < limit) {
+            return buffer[position] & 0xff;
+        }
+        if (endOfInput) {
+            return -1;
+        }
+        try {
+            int read;
+            do {
+                read = in.read(buffer, 0, buffer.length);
+            } while (read == 0);
+            if (read < 0) {
+                endOfInput = true;
+                in.close();
+                return -1;
+            }
+            position = 0;
+            limit = read;
+            return buffer[0] & 0xff;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private IllegalArgumentException error(String problem) {
+        return new IllegalArgumentException("Cannot parse input line " + lineNumber + ": " + problem);
+    }
 }
@@ -0,0 +1,19 @@
+/**
+ * Picks the replica that serves a read, among the sites holding
+ * the variable that are up and allowed to read it.
+ *
+ * Called with the latch of the variable held (see EngineLatches),
+ * possibly from several threads at once, so implementations must be
+ * thread-safe.
+ */
+public interface ReplicaSelector {
+
+    /**
+     * @param candidates candidates[0..count) can serve the read,
+     *                   in placement order; count is at least 2
+     */
+    Site select(Site[] candidates, int count);
+
+    /** As selected by -Ddb.replicaSelection, eg. "round-robin" */
+    String getName();
+}
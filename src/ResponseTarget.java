@@ -0,0 +1,7 @@
+/**
+ * Where the output of a command goes when it was not read from
+ * the local input, eg. the client session that sent it.
+ */
+public interface ResponseTarget {
+    void write(byte[] bytes, int offset, int length);
+}
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Events queued in a ring of preallocated slots and written out by
+ * a background thread, so the engine never waits on console I/O and
+ * events are formatted on the writer thread, not the engine's.
+ *
+ * Lock-free for publishers: each claims the next sequence number
+ * with one atomic increment, fills in that slot and marks it
+ * published. Publishers never wake the writer; it polls, writes in
+ * batches and flushes the stream once nothing new has arrived for a
+ * moment, so a burst of events costs a few large writes. A publisher
+ * only waits when the writer is a whole ring behind.
+ */
+public class RingBufferEventSink implements EventSink {
+    static final int DEFAULT_CAPACITY = 1 << 14;
+    //How long a waiting publisher or the writer sleeps before looking again
+    private static final long PARK_NANOS = 50000;
+    //How long the writer sleeps once it has flushed everything
+    private static final long IDLE_PARK_NANOS = 1000000;
+    private static final int WRITE_BATCH_BYTES = 1 << 13;
+
+    /** One event, copied in by its publisher */
+    private static final class Slot {
+        EventType type;
+        String txnId;
+        int variable;
+        int value;
+        int siteId;
+        String text;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    //Next sequence number to be claimed by a publisher
+    private final AtomicLong claimed = new AtomicLong();
+    //Sequence number last published in each slot; -1 before the first
+    private final AtomicLongArray published;
+    //Updated by the writer only: next sequence number to take, and to be flushed to the stream
+    private volatile long consumed = 0;
+    private volatile long flushed = 0;
+
+    private final OutputStream out;
+    private final Thread writer;
+
+    public RingBufferEventSink(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity slots in the ring, a power of two */
+    public RingBufferEventSink(OutputStream out, int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.out = out;
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i ++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i ++) {
+            published.set(i, -1);
+        }
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeEvents();
+            }
+        }, "event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void publish(EventType type, String txnId, int variable, int value, int siteId, String text) {
+        long sequence = claimed.getAndIncrement();
+        //the slot is free once the writer has taken the event a whole ring before
+        while (sequence - consumed >= slots.length) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        int index = (int) sequence & mask;
+        Slot slot = slots[index];
+        slot.type = type;
+        slot.txnId = txnId;
+        slot.variable = variable;
+        slot.value = value;
+        slot.siteId = siteId;
+        slot.text = text;
+        published.set(index, sequence);
+    }
+
+    public void flush() {
+        long upTo = claimed.get();
+        while (flushed < upTo) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private void writeEvents() {
+        StringBuilder event = new StringBuilder();
+        byte[] batch = new byte[WRITE_BATCH_BYTES];
+        int batchLength = 0;
+        long next = 0;
+        boolean waitedForMore = false;
+        while (true) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                if (flushed == next) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                } else if (!waitedForMore) {
+                    //caught up: give more events a moment to arrive before writing
+                    waitedForMore = true;
+                    LockSupport.parkNanos(PARK_NANOS);
+                } else {
+                    writeOut(batch, batchLength, true);
+                    batchLength = 0;
+                    flushed = next;
+                }
+                continue;
+            }
+            waitedForMore = false;
+            Slot slot = slots[index];
+            event.setLength(0);
+            slot.type.format(event, slot.txnId, slot.variable, slot.value, slot.siteId, slot.text);
+            slot.txnId = null;
+            slot.text = null;
+            consumed = next + 1;
+            next ++;
+
+            if (batchLength + event.length() > batch.length) {
+                writeOut(batch, batchLength, false);
+                batchLength = 0;
+                if (event.length() > batch.length) {
+                    batch = Arrays.copyOf(batch, Integer.highestOneBit(event.length()) << 1);
+                }
+            }
+            //events are ASCII: variable names, numbers and the ids read from the input
+            for (int i = 0; i < event.length(); i ++) {
+                batch[batchLength ++] = (byte) event.charAt(i);
+            }
+        }
+    }
+
+    private void writeOut(byte[] bytes, int length, boolean flush) {
+        try {
+            if (length > 0) {
+                out.write(bytes, 0, length);
+            }
+            if (flush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Writing events failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Each read goes to the next replica in turn. Spreads reads evenly
+ * when all replicas are equally fast, without looking at their load.
+ */
+public class RoundRobinReplicaSelector implements ReplicaSelector {
+    private final AtomicInteger next = new AtomicInteger();
+
+    public Site select(Site[] candidates, int count) {
+        return candidates[(next.getAndIncrement() & Integer.MAX_VALUE) % count];
+    }
+
+    public String getName() {
+        return "round-robin";
+    }
+}
@@ -0,0 +1,57 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * For commands from several sources: the events of a command go to
+ * that command's ResponseTarget (see Command.getReplyTo), eg. the
+ * client session that sent it, and events of commands with no target
+ * go to the fallback sink.
+ * Events for a target are formatted and handed over as they happen,
+ * so they reach it ahead of the answer to the command's line. A
+ * command retried after blocking keeps its target, so its events
+ * still reach the session that sent it.
+ */
+public class RoutingEventSink implements EventSink {
+    private static final ThreadLocal<ResponseTarget> current = new ThreadLocal<ResponseTarget>();
+
+    private final EventSink fallback;
+    private final ThreadLocal<StringBuilder> formatted = new ThreadLocal<StringBuilder>() {
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    public RoutingEventSink(EventSink fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Send the events this thread publishes to target until the next call
+     * @return the target bound before, to be restored afterwards
+     */
+    public static ResponseTarget bind(ResponseTarget target) {
+        ResponseTarget previous = current.get();
+        if (target == null) {
+            current.remove();
+        } else {
+            current.set(target);
+        }
+        return previous;
+    }
+
+    public void publish(EventType type, String txnId, int variable, int value, int siteId, String text) {
+        ResponseTarget target = current.get();
+        if (target == null) {
+            fallback.publish(type, txnId, variable, value, siteId, text);
+            return;
+        }
+        StringBuilder event = formatted.get();
+        event.setLength(0);
+        type.format(event, txnId, variable, value, siteId, text);
+        byte[] bytes = event.toString().getBytes(StandardCharsets.US_ASCII);
+        target.write(bytes, 0, bytes.length);
+    }
+
+    public void flush() {
+        fallback.flush();
+    }
+}
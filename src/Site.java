@@ -1,35 +1,73 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Denotes the database at a particular site
- * Even-indexed data items are replicated at
- * every site. Odd-indexed data items are found
- * at sites (1 + (index % 10))
+ * The variables held by each site are decided by
+ * the TM's PlacementStrategy.
  * Note: 'variable' and 'data item' used interchangeably
+ *
+ * Per-variable state is held in arrays indexed by the
+ * variable's slot: its position among the (sorted) ids of
+ * the variables on this site, so a site only has room for
+ * its own variables. Per-variable state is guarded by the
+ * variable's stripe in EngineLatches; the per-site
+ * collections shared by all variables are concurrent.
  */
 public class Site {
     private int id;
-    private SiteStatus siteStatus;
-    //Variables on this site and permission to read the variable on this site
-    private Map<String, Boolean> variablesOnSite;
-    //Variable and value-time history of the variable
-    private Map<String, List<ValueTimeStamp>> variableValues;
+    private volatile SiteStatus siteStatus;
+    //Ids of the variables on this site, ascending; the index of an id is its slot
+    private final int[] variables;
+    //Permission to read the variable on this site, indexed by slot
+    private boolean[] readPermission;
+    //Variables here without read permission, so checking for the last one is O(1)
+    private final AtomicInteger unreadableVariables = new AtomicInteger();
+    //Slot where the search for the next variable to catch up resumes
+    private int catchUpCursor = 0;
+    //Value-time history of each variable on this site, indexed by slot
+    private VersionChain[] variableValues;
+    //Versions in all the chains, and the most any one chain has held, kept as they change for the metrics
+    private final AtomicLong versionCount = new AtomicLong();
+    private final AtomicInteger longestChain = new AtomicInteger();
+    //Slots of the variables written to since the version collector last visited them
+    private Queue<Integer> variablesWithOldVersions;
+    private boolean[] hasOldVersions;
     //Transactions that accessed any variable on this site
     private Set<String> transactionsOnSite;
-    //Variable and list of locks on this variable at this site
-    private Map<String, List<Lock>> lockMap;
-    /* <TxnID, <Variable (temporarily) modified by the txn, Value of the variable written by txn>>
-     RW txns write var values to site's local storage before committing */
-    private Map<String, Map<String, Integer>> localStorage;
-
-    public Site(int siteID) {
-        localStorage = new HashMap<String, Map<String, Integer>>();
+    //Lock table entry of each variable at this site, indexed by slot
+    private LockHeader[] lockTable;
+    //Locks held on this site's variables, for choosing the least busy replica to read
+    private final AtomicInteger locksHeld = new AtomicInteger();
+    //Commands waiting on this site to come back up after a failure
+    private WaitQueue recoveryWaiters;
+    private PendingCommands pendingCommands;
+
+    /**
+     * @param siteID id of the site
+     * @param variables ids of the variables on this site, ascending
+     * @param pendingCommands where commands blocked on this site are woken to
+     */
+    public Site(int siteID, int[] variables, PendingCommands pendingCommands) {
+        this.pendingCommands = pendingCommands;
+        recoveryWaiters = new WaitQueue(pendingCommands);
         siteStatus = SiteStatus.ACTIVE;
         id = siteID;
-        variablesOnSite = new HashMap<String, Boolean>();
-        transactionsOnSite = new HashSet<String>();
-        lockMap = new HashMap<String, List<Lock>>();
-        variableValues = new HashMap<String, List<ValueTimeStamp>>();
+        this.variables = variables;
+        readPermission = new boolean[variables.length];
+        variablesWithOldVersions = new ConcurrentLinkedQueue<Integer>();
+        hasOldVersions = new boolean[variables.length];
+        transactionsOnSite = ConcurrentHashMap.newKeySet();
+        lockTable = new LockHeader[variables.length];
+        variableValues = new VersionChain[variables.length];
+    }
+
+    /** @return slot of the variable on this site, negative if it is not here */
+    private int slotOf(int variable) {
+        return Arrays.binarySearch(variables, variable);
     }
 
     /**
@@ -38,13 +76,7 @@ public class Site {
      * be changed back to ACTIVE
      */
     public boolean allEvenVariablesWrittenToAfterRecovery() {
-        Set<String> allVariablesOnSite = variablesOnSite.keySet();
-        for (String variable : allVariablesOnSite) {
-            if (!variablesOnSite.get(variable)) {
-                return false;
-            }
-        }
-        return true;
+        return unreadableVariables.get() == 0;
     }
 
     public SiteStatus getSiteStatus() {
@@ -59,147 +91,266 @@ public class Site {
         return id;
     }
 
-    public Map<String, Boolean> getVariablesOnSite() {
-        return variablesOnSite;
+    public boolean hasVariable(int variable) {
+        return slotOf(variable) >= 0;
     }
 
-    /**For recovered sites*/
-    public void alterReadPermissionForVariable(String variable) {
-        variablesOnSite.put(variable, true);
+    /** Ids of the variables on this site, ascending; not to be modified */
+    public int[] getVariables() {
+        return variables;
     }
 
-    public void addVariableToSite(String variable, ValueTimeStamp valTime) {
-        variablesOnSite.put(variable, true);
-        List<ValueTimeStamp> values = new ArrayList<ValueTimeStamp>();
-        values.add(valTime);
-        variableValues.put(variable, values);
+    /**
+     * For recovered sites
+     * @return true if the variable could not be read here until now
+     */
+    public boolean alterReadPermissionForVariable(int variable) {
+        int slot = slotOf(variable);
+        if (!readPermission[slot]) {
+            readPermission[slot] = true;
+            unreadableVariables.decrementAndGet();
+            return true;
+        }
+        return false;
     }
 
-    public void updateValueOfVariable(String variable, ValueTimeStamp updatedValueTime) {
-        List<ValueTimeStamp> history = variableValues.get(variable);
-        history.add(updatedValueTime);
+    /**For recovered sites - replicated data is not readable until written to*/
+    public void revokeReadPermissionForVariable(int variable) {
+        revokeReadPermission(slotOf(variable));
     }
 
-    public List<ValueTimeStamp> getValueHistoryOfVariable(String variable) {
-        return variableValues.get(variable);
+    /**For recovered sites - revoke read permission of every replicated variable here*/
+    public void revokeReadPermissionForReplicatedVariables(PlacementStrategy placement) {
+        catchUpCursor = 0;
+        for (int slot = 0; slot < variables.length; slot ++) {
+            if (placement.isReplicated(variables[slot])) {
+                revokeReadPermission(slot);
+            }
+        }
     }
 
-    public void addTxnToSite(String txnid) {
-        transactionsOnSite.add(txnid);
+    /**
+     * Next variable without read permission, searching round from where
+     * the last search stopped and looking at no more than maxSlots slots.
+     * Permission is checked without the variable's latch; check again
+     * under it before relying on the answer.
+     * @return the variable, or -1 if none was found
+     */
+    public int nextUnreadableVariable(int maxSlots) {
+        if (unreadableVariables.get() == 0) {
+            return -1;
+        }
+        for (int i = 0; i < maxSlots && i < variables.length; i ++) {
+            int slot = catchUpCursor;
+            catchUpCursor = slot + 1 == variables.length ? 0 : slot + 1;
+            if (!readPermission[slot]) {
+                return variables[slot];
+            }
+        }
+        return -1;
     }
 
-    public boolean canReadVariable(String varToAccess) {
-        return variablesOnSite.get(varToAccess);
+    /**
+     * Bring a replica without read permission up to date from source:
+     * append the versions at source numbered after the latest one
+     * here, then allow reads again. By number and not by commit time,
+     * as commits in the tick of the latest one here may be missing.
+     * @return number of versions copied
+     */
+    public int catchUpVariable(int variable, Site source) {
+        int copied = 0;
+        if (source != this) {
+            VersionChain from = source.variableValues[source.slotOf(variable)];
+            for (int i = from.indexAfterVersion(latestVersionNumberOf(variable)); i < from.size(); i ++) {
+                updateValueOfVariable(variable, from.valueAt(i), from.timeAt(i), from.versionNumberAt(i));
+                copied ++;
+            }
+        }
+        alterReadPermissionForVariable(variable);
+        return copied;
     }
 
-    public Set<String> getTransactionsOnSite() {
-        return transactionsOnSite;
+    private void revokeReadPermission(int slot) {
+        if (readPermission[slot]) {
+            readPermission[slot] = false;
+            unreadableVariables.incrementAndGet();
+        }
     }
 
-    public void clearTransactionsOnSite() {
-        transactionsOnSite.clear();
+    public void addVariableToSite(int variable, ValueTimeStamp valTime) {
+        int slot = slotOf(variable);
+        readPermission[slot] = true;
+        variableValues[slot] = new VersionChain(valTime.getValue(), valTime.getTime());
+        versionCount.incrementAndGet();
+        recordChainLength(1);
     }
 
-    public void removeTransaction(String txid) {
-        transactionsOnSite.remove(txid);
+    /** On restart from a checkpoint - the checkpointed version replaces the history */
+    public void restoreVariable(int variable, ValueTimeStamp valTime, int versionNumber) {
+        int slot = slotOf(variable);
+        versionCount.addAndGet(1 - variableValues[slot].size());
+        variableValues[slot] = new VersionChain(valTime.getValue(), valTime.getTime(), versionNumber);
     }
 
-    public List<Lock> getLocksForVariable(String var) {
-        return lockMap.get(var);
+    /**
+     * Append the version of the variable committed at time
+     * @param versionNumber the commit's number for the variable, the same
+     *                      at every replica (see VersionChain)
+     */
+    public void updateValueOfVariable(int variable, int value, int time, int versionNumber) {
+        int slot = slotOf(variable);
+        VersionChain chain = variableValues[slot];
+        chain.add(value, time, versionNumber);
+        versionCount.incrementAndGet();
+        recordChainLength(chain.size());
+        if (!hasOldVersions[slot]) {
+            hasOldVersions[slot] = true;
+            variablesWithOldVersions.add(slot);
+        }
     }
 
-    /** Add lock to the list of locks for the variable to be locked */
-    public void addToLockMap(Lock newLock) {
-        String variable = newLock.getVariableLocked();
-        List<Lock> locksForVariable;
+    /**
+     * Trim the version chains of up to maxChains variables written
+     * to since they were last trimmed. A chain that still holds more
+     * than one version (newer than the watermark) is visited again later.
+     * @return number of versions reclaimed
+     */
+    public int collectOldVersions(int watermark, int maxChains) {
+        int reclaimed = 0;
+        //size() of the queue is O(n), so stop at the first empty poll instead
+        for (int i = 0; i < maxChains; i ++) {
+            Integer polled = variablesWithOldVersions.poll();
+            if (polled == null) {
+                break;
+            }
+            int slot = polled;
+            VersionChain chain = variableValues[slot];
+            reclaimed += chain.trimBefore(watermark);
+            if (chain.size() > 1) {
+                variablesWithOldVersions.add(slot);
+            } else {
+                hasOldVersions[slot] = false;
+            }
+        }
+        versionCount.addAndGet(-reclaimed);
+        return reclaimed;
+    }
 
-        if (!lockMap.containsKey(variable)) {
-            locksForVariable = new ArrayList<Lock>();
-        } else {
-            locksForVariable = lockMap.get(variable);
+    private void recordChainLength(int length) {
+        int longest = longestChain.get();
+        while (length > longest && !longestChain.compareAndSet(longest, length)) {
+            longest = longestChain.get();
         }
-        locksForVariable.add(newLock);
-        lockMap.put(variable, locksForVariable);
+    }
+
+    /** Versions held in all the variables' chains here */
+    public long getVersionCount() {
+        return versionCount.get();
+    }
+
+    /** Most versions any one chain here has held at once */
+    public int getLongestChain() {
+        return longestChain.get();
+    }
+
+    /** Value of the last committed version of the variable here */
+    public int latestValueOf(int variable) {
+        return variableValues[slotOf(variable)].latestValue();
+    }
+
+    /** Commit time of the last committed version of the variable here */
+    public int latestTimeOf(int variable) {
+        return variableValues[slotOf(variable)].latestTime();
     }
 
     /**
-     * Get list of all locks on the variable.
-     * Desired lock will be on this list.
-     * Remove desired lock from list.
-     *
-     * This operation is O(N) per call,
-     * where N = number of locks on
-     * to this data item by all non-RO
-     * transactions accessing this site.
+     * Number of the last committed version of the variable here. Unlike
+     * its commit time, it changes with every commit, even in the same tick,
+     * and it is comparable between replicas (see VersionChain).
      */
-    public void removeLockEntry(Lock lockToRemove) {
-        String variableCorrespondingToLock = lockToRemove.getVariableLocked();
-        List<Lock> getLockList = lockMap.get(variableCorrespondingToLock);
-        getLockList.remove(lockToRemove);
+    public int latestVersionNumberOf(int variable) {
+        return variableValues[slotOf(variable)].latestVersionNumber();
     }
 
-    public void printSpecificVariableValue(String var) {
-        List<ValueTimeStamp> history = variableValues.get(var);
-        ValueTimeStamp latestValTs = history.get(history.size() - 1);
-        int val = latestValTs.getValue();
-        System.out.println("Variable " + var + " has value: " + val + " at site " + getId());
+    /** Number of the version readAsOf(variable, timestamp) reads */
+    public int versionNumberAsOf(int variable, int timestamp) {
+        VersionChain chain = variableValues[slotOf(variable)];
+        return chain.versionNumberAt(chain.floorIndexBefore(timestamp));
     }
 
-    public void printVariableValuesOnSite() {
-        Set<String> allVars = variableValues.keySet();
-        Set<String> orderedVars = new TreeSet<String>(new MyComp());
-        orderedVars.addAll(allVars);
-        for (String var : orderedVars) {
-            printSpecificVariableValue(var);
-        }
+    /** Read-only view of the versions of the variable here, oldest first */
+    public List<ValueTimeStamp> getValueHistoryOfVariable(int variable) {
+        return variableValues[slotOf(variable)].asList();
     }
 
-    public boolean presentInLocalStorage(String txnID, String varToAccess) {
-        if (!localStorage.containsKey(txnID)) {
-            return false;
-        }
-        //<variable, variable value> modified by the transaction
-        Map<String, Integer> variableValueLocalMap = localStorage.get(txnID);
-        if (!variableValueLocalMap.containsKey(varToAccess)) {
-            return false;
-        }
-        return true;
+    /**
+     * Value of the variable as of the given time: the last version
+     * committed strictly before timestamp. O(log n) in the number
+     * of versions. Pass Integer.MAX_VALUE for the latest committed value.
+     */
+    public int readAsOf(int variable, int timestamp) {
+        return variableValues[slotOf(variable)].valueBefore(timestamp);
     }
 
-    public int getFromLocalStorage(String txnID, String varToAccess) {
-        return ((localStorage.get(txnID)).get(varToAccess));
+    public void addTxnToSite(String txnid) {
+        transactionsOnSite.add(txnid);
     }
 
-    public void addToLocalStorage(String txnID, String varToAccess, int value) {
-        Map<String, Integer> correspondingVariableMapForTxn;
-        if (!localStorage.containsKey(txnID)) {
-            correspondingVariableMapForTxn = new HashMap<String, Integer>();
-        } else {
-            correspondingVariableMapForTxn = localStorage.get(txnID);
+    public boolean canReadVariable(int varToAccess) {
+        return readPermission[slotOf(varToAccess)];
+    }
+
+    public Set<String> getTransactionsOnSite() {
+        return transactionsOnSite;
+    }
+
+    public void clearTransactionsOnSite() {
+        transactionsOnSite.clear();
+    }
+
+    public void removeTransaction(String txid) {
+        transactionsOnSite.remove(txid);
+    }
+
+    /** @return lock table entry for the variable; null if it was never locked here */
+    public LockHeader getLockHeader(int var) {
+        return lockTable[slotOf(var)];
+    }
+
+    public LockHeader getOrCreateLockHeader(int var) {
+        int slot = slotOf(var);
+        LockHeader header = lockTable[slot];
+        if (header == null) {
+            header = new LockHeader(pendingCommands);
+            lockTable[slot] = header;
         }
-        correspondingVariableMapForTxn.put(varToAccess, value);
-        localStorage.put(txnID, correspondingVariableMapForTxn);
+        return header;
     }
 
-    public Map<String,Integer> getVariablesModified(String txnID) {
-        return localStorage.get(txnID);
+    /** Add lock to the lock table entry of the variable to be locked */
+    public void addToLockTable(Lock newLock) {
+        getOrCreateLockHeader(newLock.getVariableLocked()).add(newLock);
+        locksHeld.incrementAndGet();
     }
 
-    public void clearLocalStorage() {
-        localStorage.clear();
+    /** Locks currently held on this site's variables; an upgraded lock counts once */
+    public int getLocksHeld() {
+        return locksHeld.get();
     }
 
-    public void removeFromLocalStorage(String txnId) {
-        localStorage.remove(txnId);
+    public WaitQueue getRecoveryWaiters() {
+        return recoveryWaiters;
     }
 
-    private class MyComp implements Comparator<String> {
-        public int compare(String s1, String s2) {
-            String s1num = s1.substring(1);
-            String s2num = s2.substring(1);
-            int num1 = Integer.parseInt(s1num);
-            int num2 = Integer.parseInt(s2num);
-            return (num1 < num2 ? -1 : 1);
+    /**
+     * Remove lock from the lock table entry of
+     * the variable it locks. O(1) per call.
+     */
+    public void removeLockEntry(Lock lockToRemove) {
+        int variableCorrespondingToLock = lockToRemove.getVariableLocked();
+        LockHeader header = lockTable[slotOf(variableCorrespondingToLock)];
+        if (header != null && header.remove(lockToRemove)) {
+            locksHeld.decrementAndGet();
         }
     }
 }
@@ -0,0 +1,84 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One single-threaded lane per site, for doing the same step at
+ * several replicas in parallel: a write installing its locks, or a
+ * commit appending its versions.
+ *
+ * The thread dispatching the work does the first site's share itself
+ * and waits for the others, so when runAll returns every share is done
+ * and visible to it, as if it had done them in turn. It must hold the
+ * latches the work needs; the lanes take none.
+ */
+public class SiteLanes {
+    //Indexed by site id, 1..site count
+    private final ExecutorService[] lanes;
+
+    public SiteLanes(int siteCount) {
+        lanes = new ExecutorService[siteCount + 1];
+        for (int i = 1; i <= siteCount; i ++) {
+            final String name = "site-" + i + "-lane";
+            lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable work) {
+                    Thread lane = new Thread(work, name);
+                    lane.setDaemon(true);
+                    return lane;
+                }
+            });
+        }
+    }
+
+    /**
+     * Run work[i] on the lane of site siteIds[i], for i < count, and
+     * return once all of it is done. A failure in any share is thrown
+     * here, after the other shares have finished.
+     */
+    public void runAll(int[] siteIds, Runnable[] work, int count) {
+        Future<?>[] running = new Future<?>[count];
+        for (int i = 1; i < count; i ++) {
+            running[i] = lanes[siteIds[i]].submit(work[i]);
+        }
+        RuntimeException failure = null;
+        try {
+            work[0].run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        boolean interrupted = false;
+        for (int i = 1; i < count; i ++) {
+            //the share changes engine state, so wait for it even if interrupted
+            while (true) {
+                try {
+                    running[i].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Work on site " + siteIds[i] + " failed",
+                                e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            if (lane != null) {
+                lane.shutdown();
+            }
+        }
+    }
+}
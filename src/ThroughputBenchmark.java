@@ -0,0 +1,153 @@
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures committed transactions per second against the number of
+ * threads driving one TransactionManager, in two workloads.
+ *
+ * Disjoint: each thread runs read-modify-write transactions on its own
+ * slice of the non-replicated (odd) variables, and every fourth
+ * transaction is read-only over a replicated variable, so threads
+ * only contend on the engine's latches and not on 2PL locks.
+ *
+ * Contended: every thread runs transfers between two random variables
+ * of the same few hot ones, replicated and not, so txns block on each
+ * other's locks and wait-die aborts some of them. A thread whose
+ * command blocks waits until another thread's progress lets it run.
+ *
+ * Only txns that committed are counted. Engine output is discarded
+ * while measuring.
+ *
+ * Usage: java ThroughputBenchmark [seconds per run] [max threads]
+ */
+public class ThroughputBenchmark {
+    private static final int GC_EVERY_TXNS = 1000;
+    //Variables the contended transfers pick from: x1..x(HOT_VARIABLES)
+    private static final int HOT_VARIABLES = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        //beyond this disjoint threads would share variables and block on each other's locks
+        maxThreads = Math.min(maxThreads, TransactionManager.DEFAULT_VARIABLE_COUNT / 2);
+
+        PrintStream console = System.out;
+        console.println("threads  disjoint commits/s  contended commits/s  contended aborts/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long[] disjoint = run(threads, false, (long) (seconds * 1000));
+            long[] contended = run(threads, true, (long) (seconds * 1000));
+            console.printf("%7d  %18.0f  %19.0f  %18.0f%n", threads, disjoint[0] / seconds,
+                    contended[0] / seconds, contended[1] / seconds);
+        }
+    }
+
+    /** @return {txns committed, txns aborted} */
+    private static long[] run(final int threads, final boolean contended, final long millis)
+            throws InterruptedException {
+        final TransactionManager tm = new TransactionManager();
+        tm.setEventSink(new NoOpEventSink());
+        tm.initialize();
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t ++) {
+            final int worker = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    runWorker(tm, worker, threads, contended, deadline[0], commits, aborts);
+                }
+            });
+            workers[t].start();
+        }
+        deadline[0] = System.currentTimeMillis() + millis;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new long[] {commits.get(), aborts.get()};
+    }
+
+    private static void runWorker(TransactionManager tm, int worker, int threads, boolean contended,
+                                  long deadline, AtomicLong commits, AtomicLong aborts) {
+        Random random = new Random(worker);
+        long txnCount = 0;
+        while (System.currentTimeMillis() < deadline) {
+            String txn = "T" + worker + "_" + txnCount;
+            tm.incrementTime();
+            Command[] commands = contended ? transfer(txn, random, txnCount)
+                    : disjointTxn(txn, worker, threads, txnCount);
+            for (Command cmd : commands) {
+                if (!runUnblocked(tm, cmd, deadline)) {
+                    break;
+                }
+            }
+            tm.retryWokenCommands();
+            TransactionStatus status = tm.getTransaction(txn).getStatus();
+            if (status == TransactionStatus.COMMITTED) {
+                commits.incrementAndGet();
+            } else if (status == TransactionStatus.ABORTED) {
+                aborts.incrementAndGet();
+            }
+            txnCount ++;
+            if (worker == 0 && txnCount % GC_EVERY_TXNS == 0) {
+                tm.collectOldVersions();
+            }
+        }
+    }
+
+    private static Command[] disjointTxn(String txn, int worker, int threads, long txnCount) {
+        if (txnCount % 4 == 3) {
+            int var = 2 + 2 * (int) (txnCount % (TransactionManager.DEFAULT_VARIABLE_COUNT / 2));
+            return new Command[] {new Command(Operation.BEGINRO, txn),
+                    new Command(Operation.READ, txn, var), new Command(Operation.END, txn)};
+        }
+        //odd variables owned by this worker: x(2k+1) with k % threads == worker
+        int oddVariables = TransactionManager.DEFAULT_VARIABLE_COUNT / 2;
+        int slot = worker + threads * (int) (txnCount % Math.max(1, oddVariables / threads));
+        int var = 1 + 2 * (slot % oddVariables);
+        Command write = new Command(Operation.WRITE, txn, var);
+        write.setToWriteValue((int) txnCount);
+        return new Command[] {new Command(Operation.BEGIN, txn),
+                new Command(Operation.READ, txn, var), write, new Command(Operation.END, txn)};
+    }
+
+    /** Read two hot variables, then write both */
+    private static Command[] transfer(String txn, Random random, long txnCount) {
+        int from = 1 + random.nextInt(HOT_VARIABLES);
+        int to = 1 + (from + random.nextInt(HOT_VARIABLES - 1)) % HOT_VARIABLES;
+        Command debit = new Command(Operation.WRITE, txn, from);
+        debit.setToWriteValue((int) -txnCount);
+        Command credit = new Command(Operation.WRITE, txn, to);
+        credit.setToWriteValue((int) txnCount);
+        return new Command[] {new Command(Operation.BEGIN, txn), new Command(Operation.READ, txn, from),
+                new Command(Operation.READ, txn, to), debit, credit, new Command(Operation.END, txn)};
+    }
+
+    /**
+     * Execute cmd and, if it blocks, retry woken commands until it has run.
+     * @return false if its txn is no longer running, or the run is over
+     */
+    private static boolean runUnblocked(TransactionManager tm, Command cmd, long deadline) {
+        tm.execute(cmd);
+        while (cmd.isInPendingList()) {
+            Transaction txn = tm.getTransaction(cmd.getTransaction());
+            if (txn.getStatus() != TransactionStatus.ACTIVE || System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            tm.retryWokenCommands();
+            Thread.yield();
+        }
+        return tm.getTransaction(cmd.getTransaction()).getStatus() == TransactionStatus.ACTIVE;
+    }
+}
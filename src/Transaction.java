@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents transactions: Regular(RW) and Read-Only(RO)
@@ -6,23 +7,45 @@ import java.util.*;
  */
 public class Transaction {
     private final int startTime;
+    //Order in which the txn began, unique even among txns begun in the same tick
+    private final long beginOrder;
     private String id;
-    private TransactionStatus status;
+    private volatile TransactionStatus status;
+    //Set when the txn must abort but cannot release its locks yet (see TransactionManager)
+    private volatile String requestedAbortReason;
+    //End of this txn's commit record in the redo log; -1 if nothing was logged
+    private long commitLsn = -1;
+    //Reads and writes done so far; what an abort would throw away
+    private volatile int workDone = 0;
+    //Held while a command of the txn runs, and by another thread aborting it
+    private final ReentrantLock commandLock = new ReentrantLock();
 
-    //Sites where locks are held and list of locks held by txn on that site - <site id, lock list>
-    private Map<Integer, List<Lock>> locksHeldByTxn;
+    /* Lock set of the txn - <lock key (site, variable), strongest lock held on it>
+       Membership checks and release are O(1) per lock */
+    private Map<Long, Lock> locksHeldByTxn;
     private Set<Integer> sitesAccessed;
+    //OPTIMISTIC txns only, which hold no locks: {site, variable, version number} of each read
+    private List<int[]> readSet;
+    //Values written and not yet committed, once per variable whatever its replicas; null until the first write
+    private WriteSet writeSet;
 
     private final TransactionType type;
 
-    public Transaction(int beginTime, String txnId, TransactionType txnType) {
+    /**
+     * @param beginOrder distinct for every txn, increasing in the order
+     *                   they begin; orders txns begun at the same time
+     */
+    public Transaction(int beginTime, String txnId, TransactionType txnType, long beginOrder) {
         startTime = beginTime;
+        this.beginOrder = beginOrder;
         id = txnId;
         status = TransactionStatus.ACTIVE;
         type = txnType;
         sitesAccessed = new HashSet<Integer>();
-        if (type == TransactionType.REGULAR) {
-            locksHeldByTxn = new HashMap<Integer, List<Lock>>();
+        if (type == TransactionType.OPTIMISTIC) {
+            readSet = new ArrayList<int[]>();
+        } else if (type != TransactionType.READONLY) {
+            locksHeldByTxn = new HashMap<Long, Lock>();
         }
     }
 
@@ -30,6 +53,119 @@ public class Transaction {
         return status;
     }
 
+    /**
+     * Mark the txn to be aborted once the caller has let go of
+     * its latches. Until then the txn runs no further commands.
+     */
+    public void requestAbort(String reasonForAbort) {
+        requestedAbortReason = reasonForAbort;
+    }
+
+    public String getRequestedAbortReason() {
+        return requestedAbortReason;
+    }
+
+    /**
+     * Taken before any latch while one of the txn's commands runs, and by
+     * a thread that aborts the txn for it (eg. a wound-wait victim), so an
+     * abort never clears the lock and site sets under a running command.
+     */
+    public void lockCommands() {
+        commandLock.lock();
+    }
+
+    public void unlockCommands() {
+        commandLock.unlock();
+    }
+
+    /** Called by the txn's own thread after each read or write it completes */
+    public void recordWork() {
+        workDone ++;
+    }
+
+    public int getWorkDone() {
+        return workDone;
+    }
+
+    public long getCommitLsn() {
+        return commitLsn;
+    }
+
+    public void setCommitLsn(long lsn) {
+        commitLsn = lsn;
+    }
+
+    /**
+     * Ids of the variables this txn holds locks on, possibly repeated.
+     * For an OPTIMISTIC txn, the variables it read or wrote, which its
+     * commit must keep others from changing while it is validated.
+     */
+    public int[] getLockedVariables() {
+        if (type == TransactionType.OPTIMISTIC) {
+            return getAccessedVariables();
+        }
+        Map<Long, Lock> locks = locksHeldByTxn;
+        if (locks == null) {
+            return new int[0];
+        }
+        int[] variables = new int[locks.size()];
+        int i = 0;
+        for (Lock lock : locks.values()) {
+            variables[i ++] = lock.getVariableLocked();
+        }
+        return variables;
+    }
+
+    private int[] getAccessedVariables() {
+        List<int[]> reads = readSet;
+        WriteSet writes = writeSet;
+        if (reads == null) {
+            return new int[0];
+        }
+        int written = writes == null ? 0 : writes.size();
+        int[] variables = new int[reads.size() + written];
+        int i = 0;
+        for (int[] read : reads) {
+            variables[i ++] = read[1];
+        }
+        for (int w = 0; w < written; w ++) {
+            variables[i ++] = writes.variableAt(w);
+        }
+        return variables;
+    }
+
+    /** An OPTIMISTIC txn read the variable at the site, in the given version (see Site.latestVersionNumberOf) */
+    public void recordRead(int siteId, int variable, int versionNumber) {
+        readSet.add(new int[] {siteId, variable, versionNumber});
+    }
+
+    /** {site, variable, version number} of each read by an OPTIMISTIC txn */
+    public List<int[]> getReadSet() {
+        return readSet;
+    }
+
+    /** Buffer value as the txn's write to the variable, to be applied at commit */
+    public void bufferWrite(int variable, int value) {
+        if (writeSet == null) {
+            writeSet = new WriteSet();
+        }
+        writeSet.put(variable, value);
+    }
+
+    public boolean hasWritten(int variable) {
+        return writeSet != null && writeSet.contains(variable);
+    }
+
+    /** The value last written to the variable; only if hasWritten(variable) */
+    public int getWrittenValue(int variable) {
+        return writeSet.get(variable);
+    }
+
+    /** @return the txn's uncommitted writes, or null if it has written nothing */
+    public WriteSet getWriteSet() {
+        return writeSet;
+    }
+
     public int getStartTime() {
         return startTime;
     }
@@ -46,6 +182,10 @@ public class Transaction {
      * For deadlock avoidance using wait-die, this informs us if
      * the current transaction is younger than the other transaction.
      * T2 is younger than T1 if T2's startTime > T1's starttime.
+     * Of two txns begun in the same tick, the one that began later is
+     * younger, so of any two txns exactly one is younger; two txns
+     * that each counted as no younger than the other could wait for
+     * each other forever.
      * @param other transaction to compare age to
      * @return True if current transaction is younger than the
      * other transaction. False otherwise.
@@ -53,44 +193,41 @@ public class Transaction {
     public boolean isYoungerThan(Transaction other) {
         int myStartTime = startTime;
         int otherStartTime = other.getStartTime();
-        if (myStartTime > otherStartTime) {
-            return true;
+        if (myStartTime != otherStartTime) {
+            return myStartTime > otherStartTime;
         }
-        return false;
+        return beginOrder > other.beginOrder;
     }
 
-    public void abort(Site[] sites, String reasonForAbort) {
-        performActionAndCleanUp(TransactionStatus.ABORTED, reasonForAbort, sites);
+    public void abort(Site[] sites, String reasonForAbort, EventSink events) {
+        performActionAndCleanUp(TransactionStatus.ABORTED, EventType.ABORTED, reasonForAbort,
+                sites, events);
     }
 
-    public void commit(Site[] sites) {
+    public void commit(Site[] sites, EventSink events) {
         if (status == TransactionStatus.ABORTED) {
             return;
         }
-        String printMsg = "Transaction " + id + " has committed";
-        performActionAndCleanUp(TransactionStatus.COMMITTED, printMsg, sites);
+        performActionAndCleanUp(TransactionStatus.COMMITTED, EventType.COMMITTED, null,
+                sites, events);
     }
 
-    private void performActionAndCleanUp(TransactionStatus status, String printMsg,
-                                        Site[] sites) {
+    private void performActionAndCleanUp(TransactionStatus status, EventType event,
+                                         String reasonForAbort, Site[] sites, EventSink events) {
         this.status = status;
         removeSelfFromAccessedSites(sites);
-        System.out.println(printMsg);
+        events.publish(event, id, 0, 0, 0, reasonForAbort);
         releaseAllLocksHeld(sites);
         reclaimSpace();
     }
 
     private void releaseAllLocksHeld(Site[] sites) {
-        if (type == TransactionType.REGULAR) {
+        if (type != TransactionType.READONLY) {
             if (locksHeldByTxn == null) {
                 return;
             }
-            Set<Integer> sitesAccessed = locksHeldByTxn.keySet();
-            for (Integer site : sitesAccessed) {
-                List<Lock> lockList = locksHeldByTxn.get(site);
-                for (Lock lock : lockList) {
-                    lock.release(sites);
-                }
+            for (Lock lock : locksHeldByTxn.values()) {
+                lock.release(sites);
             }
         }
     }
@@ -101,7 +238,6 @@ public class Transaction {
         }
         for (Integer accessedSiteId : sitesAccessed) {
             Site siteAccessed = sites[accessedSiteId];
-            siteAccessed.removeFromLocalStorage(id);
             siteAccessed.removeTransaction(id);
         }
     }
@@ -109,36 +245,29 @@ public class Transaction {
     private void reclaimSpace() {
         locksHeldByTxn = null;
         sitesAccessed = null;
+        readSet = null;
+        writeSet = null;
     }
 
     public void addSiteToTxn(int siteid) {
         sitesAccessed.add(siteid);
     }
 
+    /**
+     * Record a lock granted to this txn. A read lock upgraded to a
+     * write lock stays the same Lock object, so it stays recorded.
+     */
     public void addLockInformationToTransaction(Lock lock) {
-        int siteOnWhichLockIsHeld = lock.getSiteIdOnWhichLockExists();
-        List<Lock> locksOnSite;
+        locksHeldByTxn.put(lock.getKey(), lock);
+    }
 
-        if (locksHeldByTxn.containsKey(siteOnWhichLockIsHeld)) {
-            locksOnSite = locksHeldByTxn.get(siteOnWhichLockIsHeld);
-        } else {
-            locksOnSite = new ArrayList<Lock>();
-        }
-        locksOnSite.add(lock);
-        locksHeldByTxn.put(siteOnWhichLockIsHeld, locksOnSite);
+    public boolean alreadyHasLockOnSiteForVariable(int siteId, int var) {
+        return locksHeldByTxn != null && locksHeldByTxn.containsKey(Lock.keyOf(siteId, var));
     }
 
-    public boolean alreadyHasLockOnSiteForVariable(int siteId, String var) {
-        if (!locksHeldByTxn.containsKey(siteId)) {
-            return false;
-        }
-        List<Lock> locks = locksHeldByTxn.get(siteId);
-        for (Lock lock : locks) {
-            if (lock.getVariableLocked().equals(var)) {
-                return true;
-            }
-        }
-        return false;
+    public boolean holdsWriteLock(int siteId, int var) {
+        Lock lock = locksHeldByTxn == null ? null : locksHeldByTxn.get(Lock.keyOf(siteId, var));
+        return lock != null && lock.getTypeOfLock() == LockType.WRITELOCK;
     }
 
     public Set<Integer> getSitesAccessed() {
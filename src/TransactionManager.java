@@ -1,43 +1,294 @@
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class is responsible for coordinating the
  * activities of all the transactions on the distributed
  * database. It oversees the management of all the sites
  * and overall management of the distributed database.
+ *
+ * Commands may be executed from several threads at once through
+ * execute(); see EngineLatches for how the engine's state is guarded.
+ * All commands of one transaction must come from one thread at a time.
  */
 public class TransactionManager {
-    static final int SITES = 11;
-    private int time = 0;
+    static final int DEFAULT_SITE_COUNT = 10;
+    static final int DEFAULT_VARIABLE_COUNT = 20;
+    private final AtomicInteger time = new AtomicInteger(0);
+    //Txns begun so far; orders txns that begin in the same tick (see Transaction.isYoungerThan)
+    private final AtomicLong txnsBegun = new AtomicLong(0);
 
     //Gets corresponding txn object given txn id in command
     private Map<String, Transaction> transactionMap;
-    //Variables and the sites they are present on
-    private Map<String, List<Site>> variableLocationMap;
+    private final int siteCount;
+    private final int variableCount;
+    //Sites each variable is present on
+    private final PlacementStrategy placement;
 
+    //Indexed by site id, 1..siteCount
     private Site[] sites;
 
-    private List<Command> pendingCommands;
+    //RO and SI txns in the order they began; head is the oldest that may still be active
+    private Deque<Transaction> snapshotTransactions;
+    //Held to take a snapshot txn's start time and register it, and to compute the low watermark
+    private final Object snapshotRegistration = new Object();
+
+    private VersionCollector versionCollector;
+
+    //Commands blocked on a lock or a failed site
+    private PendingCommands pendingCommands;
+    //Held by the one thread retrying woken commands
+    private final ReentrantLock retryLock = new ReentrantLock();
+
+    private final EngineLatches latches = new EngineLatches();
+
+    //What a txn blocked by another txn's lock does; wait-die unless configured
+    private DeadlockPolicy deadlockPolicy;
+    //Txns the policy chose to abort on behalf of another txn's command
+    private final Queue<Transaction> victims = new ConcurrentLinkedQueue<Transaction>();
+
+    //Redo log of committed writes; null when running without durability
+    private WriteAheadLog log;
+    //Commits before this time were restored from a checkpoint at startup
+    private int recoveredUpTo = 0;
+
+    //Periodic checkpoints; null path when disabled
+    private Path checkpointPath;
+    private int checkpointEveryTicks;
+    private int ticksSinceCheckpoint = 0;
+    private Thread checkpointThread;
+    //Snapshot time of the checkpoint being written; versions it reads are kept until it is done
+    private volatile int checkpointPin = Integer.MAX_VALUE;
+
+    //Which replica serves a read; the first that can unless configured
+    private ReplicaSelector replicaSelector;
+    //Per thread, the replicas that can serve the read being executed
+    private final ThreadLocal<Site[]> readCandidates = new ThreadLocal<Site[]>() {
+        protected Site[] initialValue() {
+            return new Site[siteCount];
+        }
+    };
+
+    //begin(T) starts an OPTIMISTIC txn instead of a 2PL one
+    private boolean optimistic = false;
+
+    //Lanes that do a write's or a commit's work at several replicas in parallel; null to do it in turn
+    private SiteLanes siteLanes;
+
+    //Replicas a recovered site brings up to date from a peer per tick; 0 to wait for writes instead
+    private int catchUpPerTick = 0;
+    //Held by the one thread catching up recovered sites
+    private final ReentrantLock catchUpLock = new ReentrantLock();
+    private long variablesCaughtUp = 0;
+    private long versionsCaughtUp = 0;
 
-    private List<Command> commandsToRemoveFromPendingListForThisRound;
+    //Where values read, commits, aborts and dumps are reported; discarded unless set
+    private EventSink events;
 
+    private final EngineMetrics metrics;
+    //Periodic metrics export; null path when disabled, "-" for stderr
+    private String metricsPath;
+    private int metricsEveryTicks;
+    private int ticksSinceMetricsExport = 0;
+
+    /** The original database: 10 sites, x1..x20, placed by ModuloPlacement */
     public TransactionManager() {
-        variableLocationMap = new HashMap<String, List<Site>>();
-        transactionMap = new HashMap<String, Transaction>();
-        sites = new Site[SITES];
-        pendingCommands = new ArrayList<Command>();
-        commandsToRemoveFromPendingListForThisRound = new ArrayList<Command>();
+        this(DEFAULT_SITE_COUNT, DEFAULT_VARIABLE_COUNT, new ModuloPlacement(DEFAULT_SITE_COUNT));
+    }
+
+    /**
+     * @param siteCount sites are numbered 1..siteCount
+     * @param variableCount variables are x1..x(variableCount)
+     * @param placement which sites hold each variable
+     */
+    public TransactionManager(int siteCount, int variableCount, PlacementStrategy placement) {
+        this.siteCount = siteCount;
+        this.variableCount = variableCount;
+        this.placement = placement;
+        transactionMap = new ConcurrentHashMap<String, Transaction>();
+        sites = new Site[siteCount + 1];
+        metrics = new EngineMetrics(siteCount + 1);
+        pendingCommands = new PendingCommands();
+        snapshotTransactions = new ConcurrentLinkedDeque<Transaction>();
+        versionCollector = new VersionCollector();
+        deadlockPolicy = new WaitDiePolicy();
+        replicaSelector = new FirstReplicaSelector();
+        events = new NoOpEventSink();
     }
 
-    private void initialize() {
+    /**
+     * A TM configured by system properties:
+     * -Ddb.sites=<count> (default 10), -Ddb.variables=<count> (default 20),
+     * -Ddb.placement=modulo|hash|range (default modulo) and, for hash
+     * and range, -Ddb.replication=<sites per variable> (default 3).
+     * -Ddb.deadlock=wait-die|wound-wait|detection (default wait-die)
+     * selects the deadlock policy.
+     * -Ddb.replicaSelection=first|round-robin|least-loaded|power-of-two
+     * (default first) selects the replica that serves each read.
+     * -Ddb.concurrency=2pl|occ (default 2pl) selects what begin(T)
+     * starts; see enableOptimisticConcurrency.
+     * -Ddb.fanout=parallel does the work of a write or commit at each
+     * replica in parallel (see enableParallelFanOut); serial by default.
+     * -Ddb.catchup.perTick=<variables> lets recovered sites copy that
+     * many replicas per tick from a peer (see enableCatchUp); off by default.
+     */
+    public static TransactionManager fromSystemProperties() {
+        int siteCount = Integer.getInteger("db.sites", DEFAULT_SITE_COUNT);
+        int variableCount = Integer.getInteger("db.variables", DEFAULT_VARIABLE_COUNT);
+        int replication = Integer.getInteger("db.replication", 3);
+        String placementName = System.getProperty("db.placement", "modulo");
+        PlacementStrategy placement;
+        if (placementName.equals("modulo")) {
+            placement = new ModuloPlacement(siteCount);
+        } else if (placementName.equals("hash")) {
+            placement = new ConsistentHashPlacement(siteCount, replication);
+        } else if (placementName.equals("range")) {
+            placement = new RangePlacement(siteCount, variableCount, replication);
+        } else {
+            throw new IllegalArgumentException("Unknown placement " + placementName
+                    + "; expected modulo, hash or range");
+        }
+        TransactionManager tm = new TransactionManager(siteCount, variableCount, placement);
+
+        String deadlockPolicyName = System.getProperty("db.deadlock", "wait-die");
+        if (deadlockPolicyName.equals("wait-die")) {
+            tm.setDeadlockPolicy(new WaitDiePolicy());
+        } else if (deadlockPolicyName.equals("wound-wait")) {
+            tm.setDeadlockPolicy(new WoundWaitPolicy());
+        } else if (deadlockPolicyName.equals("detection")) {
+            tm.setDeadlockPolicy(new DeadlockDetectionPolicy());
+        } else {
+            throw new IllegalArgumentException("Unknown deadlock policy " + deadlockPolicyName
+                    + "; expected wait-die, wound-wait or detection");
+        }
+
+        String selectorName = System.getProperty("db.replicaSelection", "first");
+        if (selectorName.equals("first")) {
+            tm.setReplicaSelector(new FirstReplicaSelector());
+        } else if (selectorName.equals("round-robin")) {
+            tm.setReplicaSelector(new RoundRobinReplicaSelector());
+        } else if (selectorName.equals("least-loaded")) {
+            tm.setReplicaSelector(new LeastLoadedReplicaSelector());
+        } else if (selectorName.equals("power-of-two")) {
+            tm.setReplicaSelector(new PowerOfTwoReplicaSelector());
+        } else {
+            throw new IllegalArgumentException("Unknown replica selection " + selectorName
+                    + "; expected first, round-robin, least-loaded or power-of-two");
+        }
+        String concurrency = System.getProperty("db.concurrency", "2pl");
+        if (concurrency.equals("occ")) {
+            tm.enableOptimisticConcurrency();
+        } else if (!concurrency.equals("2pl")) {
+            throw new IllegalArgumentException("Unknown concurrency control " + concurrency
+                    + "; expected 2pl or occ");
+        }
+        String fanOut = System.getProperty("db.fanout", "serial");
+        if (fanOut.equals("parallel")) {
+            tm.enableParallelFanOut();
+        } else if (!fanOut.equals("serial")) {
+            throw new IllegalArgumentException("Unknown fan-out " + fanOut + "; expected serial or parallel");
+        }
+        tm.enableCatchUp(Integer.getInteger("db.catchup.perTick", 0));
+        return tm;
+    }
+
+    /** Set before any txn begins */
+    public void setDeadlockPolicy(DeadlockPolicy deadlockPolicy) {
+        this.deadlockPolicy = deadlockPolicy;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    public void setReplicaSelector(ReplicaSelector replicaSelector) {
+        this.replicaSelector = replicaSelector;
+    }
+
+    public ReplicaSelector getReplicaSelector() {
+        return replicaSelector;
+    }
+
+    /**
+     * begin(T) starts an OPTIMISTIC txn from now on: it takes no locks,
+     * buffers its writes in its write set, and at end(T)
+     * is validated against the versions it read before its writes are
+     * applied. Cheaper than 2PL while txns seldom conflict; a conflict
+     * costs an abort at commit instead of a wait. beginRO and beginSI
+     * are not affected.
+     */
+    public void enableOptimisticConcurrency() {
+        optimistic = true;
+    }
+
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    /**
+     * Dispatch the per-site work of writes and commits that reach more
+     * than one replica to a lane per site (see SiteLanes): lock installs,
+     * and version appends at commit. Set before
+     * executing any command.
+     */
+    public void enableParallelFanOut() {
+        siteLanes = new SiteLanes(siteCount);
+    }
+
+    /** Stop the lanes started by enableParallelFanOut, once done executing */
+    public void shutdownFanOut() {
+        if (siteLanes != null) {
+            siteLanes.shutdown();
+        }
+    }
+
+    /** Set before executing any command */
+    public void setEventSink(EventSink events) {
+        this.events = events;
+    }
+
+    public EventSink getEventSink() {
+        return events;
+    }
+
+    public void initialize() {
         initializeSites();
         distributeVariablesToSites();
     }
 
+    /** Each site gets room for exactly the variables placed on it */
     private void initializeSites() {
-        for (int i = 1; i <= 10; i ++) {
-            sites[i] = new Site(i);
+        int[] variablesOnSite = new int[siteCount + 1];
+        for (int var = 1; var <= variableCount; var ++) {
+            for (int replica = 0; replica < placement.replicaCount(var); replica ++) {
+                variablesOnSite[placement.replicaAt(var, replica)] ++;
+            }
+        }
+        int[][] siteVariables = new int[siteCount + 1][];
+        for (int i = 1; i <= siteCount; i ++) {
+            siteVariables[i] = new int[variablesOnSite[i]];
+            variablesOnSite[i] = 0;
+        }
+        //variables are visited in increasing order, so each site's ids come out sorted
+        for (int var = 1; var <= variableCount; var ++) {
+            for (int replica = 0; replica < placement.replicaCount(var); replica ++) {
+                int siteId = placement.replicaAt(var, replica);
+                siteVariables[siteId][variablesOnSite[siteId] ++] = var;
+            }
+        }
+        for (int i = 1; i <= siteCount; i ++) {
+            sites[i] = new Site(i, siteVariables[i], pendingCommands);
         }
     }
 
@@ -49,65 +300,178 @@ public class TransactionManager {
     }
 
     /**
-     * Odd-indexed variables are at one site each (non-replicated)
-     * Even-indexed variables are at all sites (replicated)
+     * Give every variable its initial value at each site the
+     * placement puts it on
      */
-
     private void distributeVariablesToSites() {
-        for (int var = 1; var <= 20; var ++) {
-            String varName = getVariableName(var);
+        for (int var = 1; var <= variableCount; var ++) {
             ValueTimeStamp variableValue = initializeVariable(var);
-            if (var % 2 == 0) {
-                for (Site site : sites) {
-                    if (site == null) {
-                        continue;
-                    }
-                    List<Site> locations;
-                    site.addVariableToSite(varName, variableValue);
-                    if (variableLocationMap.containsKey(varName)) {
-                        locations = variableLocationMap.get(varName);
-                    } else {
-                        locations = new ArrayList<Site>();
-                    }
-                    locations.add(site);
-                    variableLocationMap.put(varName, locations);
-                }
-            } else {
-                int siteIndex = 1 + (var % 10);
-                Site siteLocatedAt = sites[siteIndex];
-                List<Site> location = new ArrayList<Site>();
-                location.add(siteLocatedAt);
-                variableLocationMap.put(varName, location);
-                siteLocatedAt.addVariableToSite(varName, variableValue);
+            for (int replica = 0; replica < placement.replicaCount(var); replica ++) {
+                replicaOf(var, replica).addVariableToSite(var, variableValue);
             }
         }
     }
 
-    private String getVariableName(int varIdx) {
-        String variableName = "x" + String.valueOf(varIdx);
-        return variableName;
+    /** The index-th site holding the variable; see PlacementStrategy */
+    private Site replicaOf(int variable, int index) {
+        return sites[placement.replicaAt(variable, index)];
+    }
+
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    public PlacementStrategy getPlacement() {
+        return placement;
     }
 
     public int getTime() {
-        return time;
+        return time.get();
     }
 
     public void incrementTime() {
-        time ++;
+        time.incrementAndGet();
+    }
+
+    /** @return the txn begun with this id, null if there is none */
+    public Transaction getTransaction(String txnId) {
+        return transactionMap.get(txnId);
+    }
+
+    /**
+     * Reject a command that parsed but cannot run here: a begin of a txn
+     * id in use, a command of a txn never begun, or a variable or site
+     * that does not exist. Call just before executing cmd.
+     * @throws IllegalArgumentException saying what is wrong with cmd
+     */
+    public void checkCommand(Command cmd) {
+        String txnId = cmd.getTransaction();
+        switch (cmd.getOperation()) {
+            case BEGIN:
+            case BEGINRO:
+            case BEGINSI:
+                if (transactionMap.containsKey(txnId)) {
+                    throw new IllegalArgumentException("Transaction " + txnId + " already exists");
+                }
+                break;
+
+            case READ:
+            case WRITE:
+                checkTransaction(txnId);
+                checkVariable(cmd.getVarId());
+                break;
+
+            case END:
+                checkTransaction(txnId);
+                break;
+
+            case FAIL:
+            case RECOVER:
+                checkSite(cmd.getSiteAffected());
+                break;
+
+            case DUMP:
+                if (cmd.getDumpType() == DumpType.SITE) {
+                    checkSite(cmd.getDumpValue());
+                } else if (cmd.getDumpType() == DumpType.VARIABLE) {
+                    checkVariable(cmd.getDumpValue());
+                }
+                break;
+
+            default:
+                break;
+        }
     }
 
-    private void putCommandInPendingListIfAbsent(Command cmd) {
-        if (!cmd.isInPendingList()) {
-            cmd.setInPendingList(true);
-            pendingCommands.add(cmd);
+    private void checkTransaction(String txnId) {
+        if (!transactionMap.containsKey(txnId)) {
+            throw new IllegalArgumentException("Unknown transaction " + txnId);
+        }
+    }
+
+    private void checkVariable(int variable) {
+        if (variable < 1 || variable > variableCount) {
+            throw new IllegalArgumentException("No variable x" + variable + ": variables are x1..x" + variableCount);
+        }
+    }
+
+    private void checkSite(int siteId) {
+        if (siteId < 1 || siteId > siteCount) {
+            throw new IllegalArgumentException("No site " + siteId + ": sites are 1.." + siteCount);
+        }
+    }
+
+    /**
+     * Drop the txns among txnIds that have committed or aborted, and
+     * their blocked commands, so a long-running TM does not keep every
+     * txn it has run and their ids may be begun again. Running txns are
+     * kept. Call between ticks, with no command of those txns running.
+     */
+    public void forgetFinishedTransactions(Collection<String> txnIds) {
+        latches.lockExclusive();
+        try {
+            Set<String> forgotten = new HashSet<String>();
+            for (String txnId : txnIds) {
+                Transaction txn = transactionMap.get(txnId);
+                if (txn != null && txn.getStatus() != TransactionStatus.ACTIVE) {
+                    transactionMap.remove(txnId);
+                    forgotten.add(txnId);
+                }
+            }
+            if (forgotten.isEmpty()) {
+                return;
+            }
+            for (Command cmd : pendingCommands.getPendingCommands()) {
+                if (forgotten.contains(cmd.getTransaction())) {
+                    pendingCommands.removeIfPresent(cmd);
+                }
+            }
+        } finally {
+            latches.unlockExclusive();
+        }
+    }
+
+    /** Block cmd until a lock on the variable at the site is released */
+    private void waitForLock(Command cmd, Site site, int variable) {
+        pendingCommands.waitOn(cmd, site.getOrCreateLockHeader(variable).getWaiters());
+    }
+
+    /**
+     * Block cmd until some site holding the variable can serve it:
+     * a failed site recovers, or a recovered site gets a committed
+     * write to the variable (which releases the writer's lock on it there)
+     */
+    private void waitForSiteWithVariable(Command cmd, int variable) {
+        for (int replica = 0; replica < placement.replicaCount(variable); replica ++) {
+            Site site = replicaOf(variable, replica);
+            if (site.getSiteStatus() == SiteStatus.FAILED) {
+                pendingCommands.waitOn(cmd, site.getRecoveryWaiters());
+            } else {
+                waitForLock(cmd, site, variable);
+            }
         }
     }
 
     private void removeCommandFromPendingListIfPresent(Command cmd) {
         if (cmd.isInPendingList()) {
-            cmd.setInPendingList(false);
-            commandsToRemoveFromPendingListForThisRound.add(cmd);
+            metrics.recordBlockedTime(System.nanoTime() - cmd.getBlockedAtNanos());
+        }
+        pendingCommands.removeIfPresent(cmd);
+    }
+
+    /** Blocked commands of transactions that are still running */
+    private int countPendingCommands() {
+        int count = 0;
+        for (Command cmd : pendingCommands.getPendingCommands()) {
+            if (canRunTxn(transactionMap.get(cmd.getTransaction()))) {
+                count ++;
+            }
         }
+        return count;
     }
 
     /**
@@ -118,33 +482,540 @@ public class TransactionManager {
         txn.addSiteToTxn(serveSite.getId());
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
-        TransactionManager tm = new TransactionManager();
-        ReadFileInput rf = new ReadFileInput("/Users/purnima/Desktop/adbms/Project/tests");
-
+    /**
+     * A TM set up as fromSystemProperties() and initialized, publishing
+     * to events, with durability and metrics export as the system
+     * properties ask for.
+     * Durability is off unless -Ddb.wal=<log file> is given;
+     * -Ddb.wal.groupCommitMillis=<window> sets the group commit
+     * window (default 0: one sync per tick).
+     * -Ddb.checkpoint=<file> restores from that checkpoint at startup
+     * if it exists and writes a new one every
+     * -Ddb.checkpoint.everyTicks=<ticks> (default 1000).
+     * -Ddb.metrics=<file> appends the engine metrics to that file ("-"
+     * for stderr) every -Ddb.metrics.everyTicks=<ticks> (default 1000).
+     */
+    public static TransactionManager openFromSystemProperties(EventSink events) throws IOException {
+        TransactionManager tm = fromSystemProperties();
+        tm.setEventSink(events);
         tm.initialize();
+        String checkpoint = System.getProperty("db.checkpoint");
+        if (checkpoint != null) {
+            int everyTicks = Integer.parseInt(System.getProperty("db.checkpoint.everyTicks", "1000"));
+            tm.enableCheckpoints(checkpoint, everyTicks);
+        }
+        String logPath = System.getProperty("db.wal");
+        if (logPath != null) {
+            double window = Double.parseDouble(System.getProperty("db.wal.groupCommitMillis", "0"));
+            tm.openLog(logPath, window);
+        }
+        String metricsPath = System.getProperty("db.metrics");
+        if (metricsPath != null) {
+            int everyTicks = Integer.parseInt(System.getProperty("db.metrics.everyTicks", "1000"));
+            tm.enableMetricsExport(metricsPath, everyTicks);
+        }
+        return tm;
+    }
+
+    /**
+     * Reads commands from the file named by the first argument,
+     * or from stdin if it is "-".
+     * The database is set up by system properties; see
+     * fromSystemProperties() and openFromSystemProperties().
+     * With -Ddb.metrics the metrics are also exported at the end.
+     */
+    public static void main(String[] args) throws IOException {
+        ReadFileInput rf;
+        if (args.length == 0) {
+            rf = new ReadFileInput("/Users/purnima/Desktop/adbms/Project/tests");
+        } else if (args[0].equals("-")) {
+            rf = new ReadFileInput(System.in);
+        } else {
+            rf = new ReadFileInput(args[0]);
+        }
+        TransactionManager tm = openFromSystemProperties(new RingBufferEventSink(System.out));
 
         while (rf.hasNextLine()) {
             tm.incrementTime();
-            List<Command> cmdsForLine = rf.getLineAsCommands();
+            List<Command> cmdsForLine;
+            try {
+                cmdsForLine = rf.getLineAsCommands();
+            } catch (IllegalArgumentException e) {
+                //report the line and go on with the rest of the input
+                System.err.println(e.getMessage());
+                rf.skipRestOfLine();
+                cmdsForLine = Collections.<Command>emptyList();
+            }
 
             for (Command cmd : cmdsForLine) {
-                tm.executeCommand(cmd);
+                try {
+                    tm.checkCommand(cmd);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    continue;
+                }
+                tm.execute(cmd);
+            }
+            tm.endTick();
+        }
+        tm.awaitCheckpoint();
+        if (tm.metricsPath != null) {
+            tm.exportMetrics();
+        }
+        tm.events.publish(EventType.TEXT, null, 0, 0, 0,
+                "Number of pending commands = " + tm.countPendingCommands() + "\n");
+        if (tm.catchUpPerTick > 0) {
+            tm.events.publish(EventType.TEXT, null, 0, 0, 0, "Replicas caught up = " + tm.variablesCaughtUp
+                    + " (" + tm.versionsCaughtUp + " versions copied)\n");
+        }
+        if (tm.log != null) {
+            tm.events.publish(EventType.TEXT, null, 0, 0, 0, tm.log.getStatistics() + "\n");
+            tm.log.close();
+        }
+        tm.events.flush();
+    }
+
+    /**
+     * Work done after the commands of every tick, wherever they come from
+     */
+    public void endTick() {
+        catchUpRecoveredSites();
+        /*Retry the pending commands whose lock or site
+        changed while executing current list of commands*/
+        retryWokenCommands();
+        //group commit: the tick's commits become durable together
+        syncLog();
+        collectOldVersions();
+        checkpointIfDue();
+        exportMetricsIfDue();
+    }
+
+    /**
+     * Abort txnId if it is still running, eg. when the client that
+     * began it goes away. Its blocked commands are dropped when they
+     * are next woken.
+     * @param why completes "aborted because ..." in the abort event
+     */
+    public void abandon(String txnId, String why) {
+        Transaction txn = transactionMap.get(txnId);
+        if (txn == null) {
+            return;
+        }
+        txn.lockCommands();
+        try {
+            int[] stripes = latches.lockVariables(txn.getLockedVariables());
+            try {
+                if (txn.getStatus() == TransactionStatus.ACTIVE) {
+                    txn.abort(sites, "Transaction " + txnId + " has been aborted because " + why, events);
+                    metrics.recordAbort(AbortCause.ABANDONED);
+                    deadlockPolicy.finished(txn);
+                }
+            } finally {
+                latches.unlockVariables(stripes);
+            }
+        } finally {
+            txn.unlockCommands();
+        }
+    }
+
+    /**
+     * Replay the redo log at path into the freshly initialized sites,
+     * then log every commit to it from here on.
+     * @param groupCommitMillis see WriteAheadLog
+     */
+    public void openLog(String path, double groupCommitMillis) throws IOException {
+        log = new WriteAheadLog(path, groupCommitMillis);
+        int lastCommitTime = log.replay(sites, recoveredUpTo);
+        //versions appended from now on must not predate the replayed ones
+        if (lastCommitTime > getTime()) {
+            time.set(lastCommitTime);
+        }
+    }
+
+    /**
+     * Restore the sites from the checkpoint at path, if there is one,
+     * and write a new checkpoint every everyTicks ticks.
+     * Call before openLog, which then replays only later commits.
+     */
+    public void enableCheckpoints(String path, int everyTicks) throws IOException {
+        checkpointPath = Paths.get(path);
+        checkpointEveryTicks = everyTicks;
+        if (Files.exists(checkpointPath)) {
+            recoveredUpTo = Checkpoint.restore(checkpointPath, sites, variableCount, placement);
+            if (recoveredUpTo > getTime()) {
+                time.set(recoveredUpTo);
+            }
+        }
+    }
+
+    /**
+     * Start a checkpoint in the background if one is due and none is
+     * running. It snapshots commits up to and including the current
+     * tick; later commits are in the redo log. The tick's versions have
+     * already been collected against a watermark at the current time,
+     * so a snapshot before the current time may find nothing to read.
+     * Once the checkpoint is in place, the log records made durable
+     * before it started are dropped: their writes were applied before
+     * they were logged, so the snapshot holds them.
+     */
+    public void checkpointIfDue() {
+        if (checkpointPath == null || ++ ticksSinceCheckpoint < checkpointEveryTicks) {
+            return;
+        }
+        if (checkpointThread != null && checkpointThread.isAlive()) {
+            return;
+        }
+        ticksSinceCheckpoint = 0;
+        final int snapshotTime = getTime() + 1;
+        final long logCut = log == null ? 0 : log.getDurableLsn();
+        checkpointPin = snapshotTime;
+        checkpointThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Checkpoint.write(checkpointPath, snapshotTime, sites, variableCount, latches);
+                    if (log != null) {
+                        log.discardBefore(logCut);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Checkpoint at time " + snapshotTime + " failed: " + e);
+                } finally {
+                    checkpointPin = Integer.MAX_VALUE;
+                }
+            }
+        }, "checkpoint");
+        checkpointThread.start();
+    }
+
+    public void awaitCheckpoint() throws IOException {
+        if (checkpointThread == null) {
+            return;
+        }
+        try {
+            checkpointThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for checkpoint", e);
+        }
+    }
+
+    /**
+     * Append the metrics report to path ("-" for stderr) every everyTicks ticks
+     */
+    public void enableMetricsExport(String path, int everyTicks) {
+        metricsPath = path;
+        metricsEveryTicks = everyTicks;
+    }
+
+    public void exportMetricsIfDue() {
+        if (metricsPath == null || ++ ticksSinceMetricsExport < metricsEveryTicks) {
+            return;
+        }
+        ticksSinceMetricsExport = 0;
+        try {
+            exportMetrics();
+        } catch (IOException e) {
+            System.err.println("Metrics export to " + metricsPath + " failed: " + e);
+        }
+    }
+
+    private void exportMetrics() throws IOException {
+        String report = getMetricsReport();
+        if (metricsPath.equals("-")) {
+            System.err.print(report);
+        } else {
+            Files.write(Paths.get(metricsPath), report.getBytes(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /** See EngineMetrics.report; commands keep running while it is made */
+    public String getMetricsReport() {
+        return metrics.report(getTime(), sites);
+    }
+
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Make every commit logged so far durable */
+    public void syncLog() {
+        if (log != null) {
+            log.sync();
+        }
+    }
+
+    /**
+     * Low watermark: start time of the oldest active RO or SI txn. No
+     * such txn still running can read a version older than the last one
+     * before it. With none running, any that begins later starts at the
+     * current time or after: a snapshot txn takes its start time under
+     * the same lock, so it is either counted here or starts no earlier.
+     * A checkpoint being written holds the watermark at its snapshot time.
+     */
+    private int getLowWatermark() {
+        synchronized (snapshotRegistration) {
+            Transaction oldest = snapshotTransactions.peekFirst();
+            while (oldest != null && oldest.getStatus() != TransactionStatus.ACTIVE) {
+                snapshotTransactions.remove(oldest);
+                oldest = snapshotTransactions.peekFirst();
+            }
+            int watermark = oldest == null ? getTime() : oldest.getStartTime();
+            return Math.min(watermark, checkpointPin);
+        }
+    }
+
+    /** Begin an RO or SI txn, so the version collector never misses its start time */
+    private Transaction beginSnapshotTransaction(String txnId, TransactionType type) {
+        synchronized (snapshotRegistration) {
+            Transaction txn = new Transaction(getTime(), txnId, type, txnsBegun.incrementAndGet());
+            snapshotTransactions.addLast(txn);
+            return txn;
+        }
+    }
+
+    /** Run once per tick, after all commands of the tick have been executed */
+    public void collectOldVersions() {
+        latches.lockExclusive();
+        try {
+            metrics.recordVersionsReclaimed(versionCollector.collect(sites, getLowWatermark()));
+        } finally {
+            latches.unlockExclusive();
+        }
+    }
+
+    /**
+     * Without catch-up, a replicated variable on a recovered site stays
+     * unreadable until a txn commits a write to it, and cold variables
+     * may never get one. With catch-up, every tick each recovered site
+     * looks at up to variablesPerTick of its unreadable replicas and
+     * copies the versions it missed from a peer, so foreground commands
+     * only ever wait on a few variables' latches for it.
+     */
+    public void enableCatchUp(int variablesPerTick) {
+        catchUpPerTick = variablesPerTick;
+    }
+
+    /**
+     * Run once per tick, before retrying woken commands: readers
+     * waiting for a replica that has caught up are woken.
+     * If another thread is already catching up, returns at once.
+     */
+    public void catchUpRecoveredSites() {
+        if (catchUpPerTick == 0 || !catchUpLock.tryLock()) {
+            return;
+        }
+        try {
+            for (Site site : sites) {
+                if (site != null && site.getSiteStatus() == SiteStatus.RECOVERED) {
+                    catchUpSite(site);
+                }
+            }
+        } finally {
+            catchUpLock.unlock();
+        }
+    }
+
+    private void catchUpSite(Site site) {
+        //{site, variable, value} of each replica caught up, for the redo log
+        List<int[]> caughtUp = new ArrayList<int[]>();
+        for (int i = 0; i < catchUpPerTick && site.getSiteStatus() == SiteStatus.RECOVERED; i ++) {
+            int variable = site.nextUnreadableVariable(catchUpPerTick);
+            if (variable < 0) {
+                break;
+            }
+            latches.lockVariable(variable);
+            try {
+                //the site may have failed again, or the variable been written to, since
+                if (site.getSiteStatus() != SiteStatus.RECOVERED || site.canReadVariable(variable)) {
+                    continue;
+                }
+                Site source = findCatchUpSource(site, variable);
+                if (source == null) {
+                    continue;
+                }
+                versionsCaughtUp += site.catchUpVariable(variable, source);
+                variablesCaughtUp ++;
+                caughtUp.add(new int[] {site.getId(), variable,
+                        site.latestValueOf(variable)});
+                LockHeader header = site.getLockHeader(variable);
+                if (header != null) {
+                    header.getWaiters().wakeAll();
+                }
+                if (site.allEvenVariablesWrittenToAfterRecovery()) {
+                    site.setSiteStatus(SiteStatus.ACTIVE);
+                }
+            } finally {
+                latches.unlockVariable(variable);
+            }
+        }
+        //so a restart does not bring the replica back stale
+        if (log != null && !caughtUp.isEmpty()) {
+            log.append(getTime(), WriteAheadLog.CATCH_UP, caughtUp);
+        }
+    }
+
+    /**
+     * Replica of the variable that has every committed version of it:
+     * one that is readable, or, when every replica is up but none is
+     * readable, the one with the highest version number, as each commit
+     * reached at least one replica. Call with the variable's latch held.
+     * @return null if a failed replica might have the newest version
+     */
+    private Site findCatchUpSource(Site site, int variable) {
+        Site newest = site;
+        boolean replicaDown = false;
+        for (int replica = 0; replica < placement.replicaCount(variable); replica ++) {
+            Site peer = replicaOf(variable, replica);
+            if (peer.getSiteStatus() == SiteStatus.FAILED) {
+                replicaDown = true;
+            } else if (peer.getSiteStatus() == SiteStatus.ACTIVE || peer.canReadVariable(variable)) {
+                return peer;
+            } else if (peer.latestVersionNumberOf(variable) > newest.latestVersionNumberOf(variable)) {
+                newest = peer;
             }
-            /*Traverse pending list to see if any command can
-            be processed after executing current list of commands*/
-            tm.executeCommandsInPendingList();
         }
-        System.out.println("Number of pending commands = " + tm.pendingCommands.size());
+        return replicaDown ? null : newest;
+    }
+
+    /**
+     * Retry the commands woken since they last blocked. If another
+     * thread is already retrying, it picks up this thread's wakeups.
+     */
+    public void retryWokenCommands() {
+        do {
+            if (!retryLock.tryLock()) {
+                return;
+            }
+            try {
+                executeCommandsInPendingList();
+            } finally {
+                retryLock.unlock();
+            }
+        } while (pendingCommands.hasReady());
+        metrics.recordPendingDepth(pendingCommands.size());
     }
 
     private void executeCommandsInPendingList() {
-        commandsToRemoveFromPendingListForThisRound.clear();
-        for (Command pending : pendingCommands) {
-            executeCommand(pending);
+        pendingCommands.beginRound();
+        Command pending;
+        while ((pending = pendingCommands.nextReady()) != null) {
+            execute(pending);
+        }
+        pendingCommands.endRound();
+    }
+
+    /**
+     * Execute one command. Safe to call from several threads;
+     * takes the latches the command needs (see EngineLatches).
+     */
+    public void execute(Command cmd) {
+        ResponseTarget previousTarget = RoutingEventSink.bind(cmd.getReplyTo());
+        long start = System.nanoTime();
+        try {
+            executeWithLatches(cmd);
+        } finally {
+            RoutingEventSink.bind(previousTarget);
         }
-        for (Command command : commandsToRemoveFromPendingListForThisRound) {
-            pendingCommands.remove(command);
+        if (cmd.getTransaction() != null && !cmd.isInPendingList()) {
+            Transaction txn = transactionMap.get(cmd.getTransaction());
+            metrics.recordLatency(cmd.getOperation(), txn.getType(), System.nanoTime() - start);
+            if ((cmd.getOperation() == Operation.READ || cmd.getOperation() == Operation.WRITE)
+                    && txn.getType() != TransactionType.READONLY && canRunTxn(txn)) {
+                txn.recordWork();
+            }
+        }
+    }
+
+    private void executeWithLatches(Command cmd) {
+        switch (cmd.getOperation()) {
+            case BEGIN:
+            case BEGINRO:
+            case BEGINSI:
+                executeCommand(cmd);
+                break;
+
+            case READ:
+            case WRITE:
+                int variable = cmd.getVarId();
+                Transaction requester = transactionMap.get(cmd.getTransaction());
+                requester.lockCommands();
+                try {
+                    latches.lockVariable(variable);
+                    try {
+                        if (cmd.isInPendingList()) {
+                            deadlockPolicy.stopWaiting(requester, cmd);
+                        }
+                        executeCommand(cmd);
+                    } finally {
+                        latches.unlockVariable(variable);
+                    }
+                } finally {
+                    requester.unlockCommands();
+                }
+                finishRequestedAbort(requester);
+                Transaction victim;
+                while ((victim = victims.poll()) != null) {
+                    finishRequestedAbort(victim);
+                }
+                break;
+
+            case END:
+                Transaction txn = transactionMap.get(cmd.getTransaction());
+                txn.lockCommands();
+                try {
+                    int[] stripes = latches.lockVariables(txn.getLockedVariables());
+                    try {
+                        executeCommand(cmd);
+                    } finally {
+                        latches.unlockVariables(stripes);
+                    }
+                } finally {
+                    txn.unlockCommands();
+                }
+                //with a group commit window, END returns once the commit is durable
+                if (log != null && log.hasGroupCommitWindow() && txn.getCommitLsn() >= 0) {
+                    log.awaitDurable(txn.getCommitLsn());
+                }
+                break;
+
+            default:
+                latches.lockExclusive();
+                try {
+                    executeCommand(cmd);
+                } finally {
+                    latches.unlockExclusive();
+                }
+                break;
+        }
+    }
+
+    /**
+     * A txn aborted by the deadlock policy only asks to abort while the
+     * latch of the variable being accessed is held; its locks on other
+     * variables are released here, under the stripes of all the variables
+     * it has locked. A victim's own command may be running on another
+     * thread, on a variable it has no lock on yet, so that is waited for.
+     */
+    private void finishRequestedAbort(Transaction txn) {
+        String reasonForAbort = txn.getRequestedAbortReason();
+        if (reasonForAbort == null) {
+            return;
+        }
+        txn.lockCommands();
+        try {
+            int[] stripes = latches.lockVariables(txn.getLockedVariables());
+            try {
+                //site failure may have aborted the txn meanwhile
+                if (txn.getStatus() == TransactionStatus.ACTIVE) {
+                    txn.abort(sites, reasonForAbort, events);
+                    metrics.recordAbort(deadlockPolicy.getAbortCause());
+                    deadlockPolicy.finished(txn);
+                }
+            } finally {
+                latches.unlockVariables(stripes);
+            }
+        } finally {
+            txn.unlockCommands();
         }
     }
 
@@ -153,25 +1024,33 @@ public class TransactionManager {
 
             case BEGIN:
                 String txnID = cmd.getTransaction();
-                Transaction txn = new Transaction(getTime(),
-                        txnID, TransactionType.REGULAR);
+                Transaction txn = new Transaction(getTime(), txnID,
+                        optimistic ? TransactionType.OPTIMISTIC : TransactionType.REGULAR,
+                        txnsBegun.incrementAndGet());
                 transactionMap.put(txnID, txn);
                 break;
 
             case BEGINRO:
                 txnID = cmd.getTransaction();
-                txn = new Transaction(getTime(),
-                        txnID, TransactionType.READONLY);
-                transactionMap.put(txnID, txn);
+                transactionMap.put(txnID, beginSnapshotTransaction(txnID, TransactionType.READONLY));
+                break;
+
+            case BEGINSI:
+                txnID = cmd.getTransaction();
+                transactionMap.put(txnID, beginSnapshotTransaction(txnID, TransactionType.SNAPSHOT));
                 break;
 
             case READ:
                 txnID = cmd.getTransaction();
                 txn = transactionMap.get(txnID);
-                String varToAccess = cmd.getVar();
+                int varToAccess = cmd.getVarId();
 
                 if (txn.getType() == TransactionType.READONLY) {
                     processROtxn(txn, varToAccess, cmd);
+                } else if (txn.getType() == TransactionType.SNAPSHOT) {
+                    processSIread(txn, varToAccess, cmd);
+                } else if (txn.getType() == TransactionType.OPTIMISTIC) {
+                    processOptimisticRead(txn, varToAccess, cmd);
                 } else {
                     processRWtxn(txn, varToAccess, cmd);
                 }
@@ -180,7 +1059,7 @@ public class TransactionManager {
             case WRITE:
                 txnID = cmd.getTransaction();
                 txn = transactionMap.get(txnID);
-                varToAccess = cmd.getVar();
+                varToAccess = cmd.getVarId();
                 int valueToWrite = cmd.getToWriteValue();
 
                 processWrite(txn, varToAccess, valueToWrite, cmd);
@@ -199,8 +1078,16 @@ public class TransactionManager {
             case END:
                 txnID = cmd.getTransaction();
                 Transaction txnAboutToCommit = transactionMap.get(txnID);
+                if (txnAboutToCommit.getType() == TransactionType.SNAPSHOT
+                        && abortOnWriteConflict(txnAboutToCommit)) {
+                    break;
+                }
                 signalCommitAndReceiveChanges(txnAboutToCommit);
-                txnAboutToCommit.commit(sites);
+                txnAboutToCommit.commit(sites, events);
+                if (txnAboutToCommit.getStatus() == TransactionStatus.COMMITTED) {
+                    metrics.recordCommit();
+                    deadlockPolicy.finished(txnAboutToCommit);
+                }
                 break;
 
             case DUMP:
@@ -214,14 +1101,17 @@ public class TransactionManager {
                     dumpVariable(varToDump);
                 }
                 break;
+
+            case STATS:
+                events.publish(EventType.TEXT, null, 0, 0, 0, metrics.report(getTime(), sites));
+                break;
         }
     }
 
     private void dumpVariable(int varToDump) {
-        String reconstructVariable = "x" + String.valueOf(varToDump);
-        List<Site> sitesWithVar = variableLocationMap.get(reconstructVariable);
-        for (Site site : sitesWithVar) {
-            site.printSpecificVariableValue(reconstructVariable);
+        for (int replica = 0; replica < placement.replicaCount(varToDump); replica ++) {
+            Site site = replicaOf(varToDump, replica);
+            dumpVariableAtSite(site, varToDump);
         }
     }
 
@@ -238,91 +1128,224 @@ public class TransactionManager {
         dumpSiteHelp(site);
     }
 
+    /** Variable ids are visited in increasing order, so output is sorted by index */
     private void dumpSiteHelp(Site site) {
-        System.out.println("Variables on site " + site.getId());
-        site.printVariableValuesOnSite();
+        events.publish(EventType.SITE_DUMP, null, 0, 0, site.getId(), null);
+        for (int variable : site.getVariables()) {
+            dumpVariableAtSite(site, variable);
+        }
     }
 
-    /**Call this on encountering end cmd*/
+    private void dumpVariableAtSite(Site site, int variable) {
+        events.publish(EventType.VARIABLE_DUMP, null, variable,
+                site.readAsOf(variable, Integer.MAX_VALUE), site.getId(), null);
+    }
+
+    /**
+     * Call this on encountering end cmd. The writes applied
+     * are appended to the redo log as one commit record.
+     */
     public void signalCommitAndReceiveChanges(Transaction txn) {
         if (!canRunTxn(txn)) {
             return;
         }
+        if (txn.getType() == TransactionType.OPTIMISTIC) {
+            String reasonForAbort = validateOptimistic(txn);
+            if (reasonForAbort != null) {
+                txn.abort(sites, reasonForAbort, events);
+                metrics.recordAbort(AbortCause.VALIDATION);
+                deadlockPolicy.finished(txn);
+                return;
+            }
+        }
 
+        //{site, variable, value} of each write applied, for the redo log
+        List<int[]> appliedWrites = new ArrayList<int[]>();
         Set<Integer> sitesAccessed = txn.getSitesAccessed();
-        for (Integer siteID : sitesAccessed) {
+        int[] versionNumbers = nextVersionNumbers(txn.getWriteSet());
+        long start = System.nanoTime();
+        if (siteLanes == null || sitesAccessed.size() < 2) {
+            for (Integer siteID : sitesAccessed) {
+                applyCommitAtSite(sites[siteID], txn, versionNumbers, appliedWrites);
+            }
+        } else {
+            applyCommitInParallel(sitesAccessed, txn, versionNumbers, appliedWrites);
+        }
+        if (sitesAccessed.size() > 1) {
+            metrics.recordCommitFanOut(System.nanoTime() - start);
+        }
+
+        if (log != null && !appliedWrites.isEmpty()) {
+            txn.setCommitLsn(log.append(getTime(), txn.getId(), appliedWrites));
+        }
+    }
+
+    /**
+     * Backward validation of an OPTIMISTIC txn, with the latches of all
+     * the variables it read or wrote held. Every version it read must
+     * still be the latest at that site, compared by version number, as
+     * several txns can commit the same variable in one tick. No other txn may hold a lock on
+     * a variable it wrote: a 2PL reader would see the value change under
+     * its read lock, and a 2PL writer may have read the old value.
+     * @return why txn must abort, or null if it can commit
+     */
+    private String validateOptimistic(Transaction txn) {
+        for (int[] read : txn.getReadSet()) {
+            int variable = read[1];
+            if (sites[read[0]].latestVersionNumberOf(variable) != read[2]) {
+                return "Transaction " + txn.getId() + " has been aborted because "
+                        + VariableCatalog.nameOf(variable) + " was committed by another transaction"
+                        + " after it read it (validation failed)";
+            }
+        }
+        WriteSet writes = txn.getWriteSet();
+        if (writes == null) {
+            return null;
+        }
+        for (Integer siteID : txn.getSitesAccessed()) {
             Site site = sites[siteID];
-            Map<String, Integer> modifiedVariables = site.getVariablesModified(txn.getId());
-            //no writes by txn on this site
-            if (modifiedVariables == null || modifiedVariables.size() == 0) {
-                continue;
+            for (int i = 0; i < writes.size(); i ++) {
+                int variable = writes.variableAt(i);
+                if (!appliesAt(txn, site, variable)) {
+                    continue;
+                }
+                LockHeader header = site.getLockHeader(variable);
+                if (header != null && !header.isFree()) {
+                    return "Transaction " + txn.getId() + " has been aborted because "
+                            + VariableCatalog.nameOf(variable) + " is locked by another transaction"
+                            + " at site " + siteID + " (validation failed)";
+                }
             }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the txn's write to the variable goes to the site at commit:
+     * a 2PL or SI txn writes where it holds the write lock, an OPTIMISTIC
+     * txn at every replica it has used, all of which were up when it wrote.
+     */
+    private boolean appliesAt(Transaction txn, Site site, int variable) {
+        if (!site.hasVariable(variable)) {
+            return false;
+        }
+        return txn.getType() == TransactionType.OPTIMISTIC
+                || txn.holdsWriteLock(site.getId(), variable);
+    }
 
-            Set<String> variablesChanged = modifiedVariables.keySet();
-            for (String variable : variablesChanged) {
-                int newValue = modifiedVariables.get(variable);
-                updateGlobalValueOfVariable(site, variable, newValue);
+    /**
+     * Apply the writes txn made at the site, if any.
+     * Adds {site, variable, value} of each one applied to appliedWrites.
+     */
+    /**
+     * Number of the version each write commits, one past the newest any
+     * replica of its variable has, up or down, so every replica gets the
+     * same number (see VersionChain)
+     * @return indexed as the writes; null if there are none
+     */
+    private int[] nextVersionNumbers(WriteSet writes) {
+        if (writes == null) {
+            return null;
+        }
+        int[] versionNumbers = new int[writes.size()];
+        for (int i = 0; i < writes.size(); i ++) {
+            int variable = writes.variableAt(i);
+            int newest = 0;
+            for (int replica = 0; replica < placement.replicaCount(variable); replica ++) {
+                newest = Math.max(newest, replicaOf(variable, replica).latestVersionNumberOf(variable));
             }
-            //remove committed txn from the scratch-pad of site
-            site.removeFromLocalStorage(txn.getId());
+            versionNumbers[i] = newest + 1;
+        }
+        return versionNumbers;
+    }
+
+    private void applyCommitAtSite(Site site, Transaction txn, int[] versionNumbers, List<int[]> appliedWrites) {
+        WriteSet writes = txn.getWriteSet();
+        //no writes by txn
+        if (writes == null) {
+            return;
+        }
+        for (int i = 0; i < writes.size(); i ++) {
+            int variable = writes.variableAt(i);
+            if (!appliesAt(txn, site, variable)) {
+                continue;
+            }
+            int newValue = writes.valueAt(i);
+            if (updateGlobalValueOfVariable(site, variable, newValue, versionNumbers[i])) {
+                appliedWrites.add(new int[] {site.getId(), variable, newValue});
+            }
+        }
+    }
+
+    /** applyCommitAtSite at every site, each on its lane */
+    private void applyCommitInParallel(Set<Integer> siteIds, final Transaction txn,
+                                       final int[] versionNumbers, List<int[]> appliedWrites) {
+        int count = siteIds.size();
+        int[] lanes = new int[count];
+        Runnable[] work = new Runnable[count];
+        List<List<int[]>> appliedBySite = new ArrayList<List<int[]>>(count);
+        int i = 0;
+        for (Integer siteID : siteIds) {
+            final Site site = sites[siteID];
+            final List<int[]> applied = new ArrayList<int[]>();
+            appliedBySite.add(applied);
+            lanes[i] = siteID;
+            work[i] = new Runnable() {
+                public void run() {
+                    applyCommitAtSite(site, txn, versionNumbers, applied);
+                }
+            };
+            i ++;
+        }
+        siteLanes.runAll(lanes, work, count);
+        for (List<int[]> applied : appliedBySite) {
+            appliedWrites.addAll(applied);
         }
     }
 
     /**
      * Call when a write transaction commits - all the variables written to
      * by the write transaction are now sent to every site that holds the variable.
-     * A value-timestamp entry is created for the variable and is appended
-     * to the corresponding list of value-timestamp history for the variable
-     * in variableValues of the site. This list will not include a failed site as
+     * A (value, commit time) version is appended to the variable's
+     * version chain at the site. This will not include a failed site as
      * the transaction would have been aborted if a site it had written to had failed.
+     * @param versionNumber see nextVersionNumbers
+     * @return false if the site is down and the value was not applied
      */
-    public void updateGlobalValueOfVariable(Site site, String variableToUpdate, int newValue) {
+    public boolean updateGlobalValueOfVariable(Site site, int variableToUpdate, int newValue, int versionNumber) {
         if (site.getSiteStatus() == SiteStatus.FAILED) {
-            return;
+            return false;
         }
 
-        ValueTimeStamp update = new ValueTimeStamp(newValue, time);
-        site.updateValueOfVariable(variableToUpdate, update);
+        site.updateValueOfVariable(variableToUpdate, newValue, getTime(), versionNumber);
+        metrics.recordSiteWrite(site.getId());
         if (site.getSiteStatus() == SiteStatus.RECOVERED) {
-            site.alterReadPermissionForVariable(variableToUpdate);
-        }
-        if (site.allEvenVariablesWrittenToAfterRecovery()) {
-            site.setSiteStatus(SiteStatus.ACTIVE);
+            //reads parked on the variable here can run now; an OPTIMISTIC writer releases no lock to wake them
+            if (site.alterReadPermissionForVariable(variableToUpdate)) {
+                LockHeader header = site.getLockHeader(variableToUpdate);
+                if (header != null) {
+                    header.getWaiters().wakeAll();
+                }
+            }
+            if (site.allEvenVariablesWrittenToAfterRecovery()) {
+                site.setSiteStatus(SiteStatus.ACTIVE);
+            }
         }
+        return true;
     }
 
     private void processRecovery(int siteNumberToRecover) {
         Site siteToRecover = sites[siteNumberToRecover];
         siteToRecover.setSiteStatus(SiteStatus.RECOVERED);
-        Map<String, Boolean> variablesOnSite = siteToRecover.getVariablesOnSite();
-        List<String> blockReadsToVariableList = new ArrayList<String>();
-
-        for(Map.Entry<String, Boolean> entry : variablesOnSite.entrySet()) {
-            String variable = entry.getKey();
-            if (isEven(variable)) {
-                blockReadsToVariableList.add(variable);
-            }
-        }
-
-        for (String variable : blockReadsToVariableList) {
-            variablesOnSite.put(variable, false);
-        }
+        siteToRecover.revokeReadPermissionForReplicatedVariables(placement);
 
         siteToRecover.clearTransactionsOnSite();
-    }
-
-    private boolean isEven(String variable) {
-        int varNum = Integer.parseInt(variable.substring(1));
-        if ((varNum % 2) == 0) {
-            return true;
-        }
-        return false;
+        siteToRecover.getRecoveryWaiters().wakeAll();
     }
 
     private void processFail(int siteNumberToFail) {
         Site siteToFail = sites[siteNumberToFail];
         siteToFail.setSiteStatus(SiteStatus.FAILED);
-        siteToFail.clearLocalStorage();
         Set<String> allTransactionsOnSite = siteToFail.getTransactionsOnSite();
         List<Transaction> abortTxnListForSite = new ArrayList<Transaction>();
 
@@ -334,21 +1357,20 @@ public class TransactionManager {
         for (Transaction transaction : abortTxnListForSite) {
             String reasonForAbort = ("Transaction " + transaction.getId() +
                     " has been aborted because site " + siteNumberToFail + " has failed");
-            transaction.abort(sites, reasonForAbort);
+            transaction.abort(sites, reasonForAbort, events);
+            metrics.recordAbort(AbortCause.SITE_FAILURE);
+            deadlockPolicy.finished(transaction);
         }
     }
 
     //Used by RW txns only - get latest committed value of variable regardless of txn start time
-    private void printVariableValueRead(String varToAccess,
+    private void printVariableValueRead(int varToAccess,
           Transaction txn, Site serveSite) {
 
-        List<ValueTimeStamp> valueHistoryForVariable =
-                serveSite.getValueHistoryOfVariable(varToAccess);
-        int size = valueHistoryForVariable.size();
-        int valueOfVariable = valueHistoryForVariable.get(size - 1).getValue();
-        System.out.println("Value of " + varToAccess +  " read by "
-                + txn.getId() + " is " + valueOfVariable
-                + " at site " + serveSite.getId());
+        int valueOfVariable = serveSite.readAsOf(varToAccess, Integer.MAX_VALUE);
+        metrics.recordSiteRead(serveSite.getId());
+        events.publish(EventType.VALUE_READ, txn.getId(), varToAccess, valueOfVariable,
+                serveSite.getId(), null);
     }
 
     private boolean canRunTxn(Transaction txn) {
@@ -358,57 +1380,66 @@ public class TransactionManager {
         if (txn.getStatus() == TransactionStatus.ABORTED) {
             return false;
         }
+        if (txn.getRequestedAbortReason() != null) {
+            return false;
+        }
         return true;
     }
 
-    private Site findSiteThatCanServeRequestedVariable(String varToAccess, Transaction txn) {
-        List<Site> sitesWithVariable = variableLocationMap.get(varToAccess);
-        Site serveSite = null;
-        for (Site site : sitesWithVariable) {
+    /**
+     * Replica to read the variable from: one the txn already holds a lock
+     * on, else one the replica selector picks from those that can serve it.
+     * @return null if no replica can serve it now
+     */
+    private Site findSiteThatCanServeRequestedVariable(int varToAccess, Transaction txn) {
+        Site[] candidates = readCandidates.get();
+        int count = 0;
+        for (int replica = 0; replica < placement.replicaCount(varToAccess); replica ++) {
+            Site site = replicaOf(varToAccess, replica);
             if (site.getSiteStatus() == SiteStatus.FAILED) {
                 continue;
             }
             if (site.getSiteStatus() == SiteStatus.RECOVERED &&
                     !site.canReadVariable(varToAccess)) {
-                System.out.println("Transaction " + txn.getId() +
-                        " cannot read variable " + varToAccess +
-                        " at site " + site.getId() +
-                        " because the site was recovered and the" +
-                        " replicated data item is yet to be written to.");
+                //reported for the replicas tried before the first that can serve
+                if (count == 0) {
+                    events.publish(EventType.CANNOT_READ, txn.getId(), varToAccess, 0, site.getId(), null);
+                }
                 continue;
             }
-            serveSite = site;
-            break;
+            //a txn reading the variable again reads it where it has locked it
+            if (txn.getType() != TransactionType.READONLY
+                    && txn.alreadyHasLockOnSiteForVariable(site.getId(), varToAccess)) {
+                return site;
+            }
+            candidates[count ++] = site;
+        }
+        if (count == 0) {
+            return null;
         }
-        return serveSite;
+        return count == 1 ? candidates[0] : replicaSelector.select(candidates, count);
     }
     
     private boolean existsWriteLockOnVariableByAnotherTransaction(
-            String varToAccess, Site serveSite) {
+            int varToAccess, Site serveSite) {
 
-        List<Lock> locksOnVariableOnServeSite = serveSite.getLocksForVariable(varToAccess);
+        LockHeader header = serveSite.getLockHeader(varToAccess);
         //no locks for this variable on site yet
-        if (locksOnVariableOnServeSite == null) {
+        if (header == null) {
             return false;
         }
-
-        for (Lock lock : locksOnVariableOnServeSite) {
-            if (lock.getTypeOfLock() == LockType.WRITELOCK) {
-                return true;
-            }
-        }
-        return false;
+        return header.isWriteLocked();
     }
 
-    private void addLock(String varToAccess, Site site, Transaction txn, LockType lockType) {
+    private void addLock(int varToAccess, Site site, Transaction txn, LockType lockType) {
         Lock newLock = new Lock(txn.getId(), site.getId(), varToAccess, lockType);
-        site.addToLockMap(newLock);
+        site.addToLockTable(newLock);
 
         txn.addLockInformationToTransaction(newLock);
         updateSiteAndTransactionRecords(site, txn);
     }
 
-    private void processRWtxn(Transaction txn, String varToAccess, Command cmd) {
+    private void processRWtxn(Transaction txn, int varToAccess, Command cmd) {
         if (!canRunTxn(txn)) {
             removeCommandFromPendingListIfPresent(cmd);
             return;
@@ -417,26 +1448,26 @@ public class TransactionManager {
         Site serveSite = findSiteThatCanServeRequestedVariable(varToAccess, txn);
         if (serveSite == null) {
             //perhaps site containing variable is currently down and might come back up later
-            putCommandInPendingListIfAbsent(cmd);
+            waitForSiteWithVariable(cmd, varToAccess);
             return;
         }
 
-        if (serveSite.presentInLocalStorage(txn.getId(), varToAccess)) {
+        if (txn.hasWritten(varToAccess)) {
             /* 
-               if var was modified by txn but not committed (present in site's local storage
-               against txn), read this value - assumption is that this is the most recent value
+               if var was modified by txn but not committed (present in the txn's write set),
+               read this value - assumption is that this is the most recent value
                of the variable and the txn modified it for a reason, even though it hasn't committed,
                and will most likely base future decisions on this recently edited value
              */
-            int valueRead = serveSite.getFromLocalStorage(txn.getId(), varToAccess);
-            System.out.println("Value of " + varToAccess + " read by " + txn.getId() +
-                                " = " + valueRead + " at site " + serveSite.getId());
+            int valueRead = txn.getWrittenValue(varToAccess);
+            metrics.recordSiteRead(serveSite.getId());
+            events.publish(EventType.UNCOMMITTED_VALUE_READ, txn.getId(), varToAccess, valueRead,
+                    serveSite.getId(), null);
             return;
         }
 
         if (txn.alreadyHasLockOnSiteForVariable(serveSite.getId(), varToAccess)) {
-            System.out.println("Transaction " + txn.getId() + " already has a lock" +
-                    " on variable " + varToAccess + " at site " + serveSite.getId());
+            events.publish(EventType.ALREADY_LOCKED, txn.getId(), varToAccess, 0, serveSite.getId(), null);
             printVariableValueRead(varToAccess, txn, serveSite);
             return;
         }
@@ -444,7 +1475,16 @@ public class TransactionManager {
         Transaction currentTxn = txn;
 
         if (existsWriteLockOnVariableByAnotherTransaction(varToAccess, serveSite)) {
-            performDeadlockDetection(serveSite, varToAccess, currentTxn, cmd);
+            Lock lock = serveSite.getLockHeader(varToAccess).getWriteLock();
+            resolveLockConflict(currentTxn, transactionMap.get(lock.getTxnIdHoldingLock()),
+                    cmd, serveSite, varToAccess);
+            return;
+        }
+        //a queued upgrade goes first, or new readers could hold it off forever
+        LockHeader header = serveSite.getLockHeader(varToAccess);
+        if (header != null && header.getQueuedUpgrade() != null) {
+            resolveLockConflict(currentTxn, transactionMap.get(header.getQueuedUpgrade()),
+                    cmd, serveSite, varToAccess);
             return;
         }
 
@@ -455,40 +1495,43 @@ public class TransactionManager {
     }
     
     /**
-     * Using wait-die
-     */
-    private void performDeadlockDetection(Site serveSite, String varToAccess,
-                                          Transaction currentTxn, Command cmd) {
-        List<Lock> locksOnVariableOnServeSite = serveSite.getLocksForVariable(varToAccess);
-        for (Lock lock : locksOnVariableOnServeSite) {
-            if (lock.getTypeOfLock() == LockType.WRITELOCK) {
-                String txnIdHoldingLock = lock.getTxnIdHoldingLock();
-                Transaction txnHoldingLock = transactionMap.get(txnIdHoldingLock);
-                if (currentTxn.isYoungerThan(txnHoldingLock)) {
-                    String reasonForAbort = ("Transaction " + currentTxn.getId() +
-                            " was aborted (wait-die) because it was waiting on a lock" +
-                            " held by Transaction " + txnHoldingLock.getId());
-                    currentTxn.abort(sites, reasonForAbort);
-                } else {
-                    //currentTxn is older than owner of lock; so it must wait for owner to complete
-                    putCommandInPendingListIfAbsent(cmd);
-                }
-            }
+     * currentTxn needs a lock on the variable at site that holder has;
+     * the deadlock policy decides whether currentTxn waits, aborts or
+     * has another txn abort. Aborts are only requested here (see
+     * finishRequestedAbort).
+     * @return WAIT if cmd was parked on the lock, ABORTED if currentTxn aborts
+     */
+    private WriteOperationStatus resolveLockConflict(Transaction currentTxn, Transaction holder,
+                                                     Command cmd, Site site, int variable) {
+        Transaction victim = deadlockPolicy.resolveConflict(currentTxn, holder, cmd);
+        if (victim == currentTxn) {
+            currentTxn.requestAbort(deadlockPolicy.reasonForAbort(currentTxn, currentTxn, holder));
+            return WriteOperationStatus.ABORTED;
         }
+        if (victim != null && victim.getRequestedAbortReason() == null) {
+            victim.requestAbort(deadlockPolicy.reasonForAbort(victim, currentTxn, holder));
+            victims.add(victim);
+        }
+        /*
+        The lock holder might itself abort later; releasing the lock wakes
+        this cmd, which is then retried. If this txn has been aborted
+        meanwhile, the command for the txn will be ignored.
+         */
+        waitForLock(cmd, site, variable);
+        return WriteOperationStatus.WAIT;
     }
 
-    private void printVariableValueReadByROTransaction(int index,
-                                                       String varToAccess,
-                                                       List<ValueTimeStamp> valueHistoryForVariable,
+    private void printVariableValueReadByROTransaction(int startTimeTxn,
+                                                       int varToAccess,
                                                        Transaction txn, Site serveSite) {
 
-        int valueOfVariableReadByROTxn = valueHistoryForVariable.get(index).getValue();
-        System.out.println("Value of " + varToAccess + " read by "
-                + txn.getId() + " is " + valueOfVariableReadByROTxn
-                + " at site " + serveSite.getId());
+        int valueOfVariableReadByROTxn = serveSite.readAsOf(varToAccess, startTimeTxn);
+        metrics.recordSiteRead(serveSite.getId());
+        events.publish(EventType.VALUE_READ, txn.getId(), varToAccess, valueOfVariableReadByROTxn,
+                serveSite.getId(), null);
     }
 
-    private void processROtxn(Transaction txn, String varToAccess, Command cmd) {
+    private void processROtxn(Transaction txn, int varToAccess, Command cmd) {
         if (!canRunTxn(txn)) {
             removeCommandFromPendingListIfPresent(cmd);
             return;
@@ -498,58 +1541,173 @@ public class TransactionManager {
         
         Site serveSite = findSiteThatCanServeRequestedVariable(varToAccess, txn);
         if (serveSite == null) {
-            putCommandInPendingListIfAbsent(cmd);
+            waitForSiteWithVariable(cmd, varToAccess);
             return;
         } else {
             //in case of site failure
             updateSiteAndTransactionRecords(serveSite, txn);
 
             //RO-txns use multiversion read consistency -- hence, get last variable value before txn began
-            List<ValueTimeStamp> valueHistoryForVariable =
-                    serveSite.getValueHistoryOfVariable(varToAccess);
+            printVariableValueReadByROTransaction(startTimeTxn, varToAccess,
+                    txn, serveSite);
 
-            int index = 0;
-            while (index < valueHistoryForVariable.size()) {
-                if (valueHistoryForVariable.get(index).getTime() < startTimeTxn) {
-                    index ++;
-                } else {
-                    break;
+            removeCommandFromPendingListIfPresent(cmd);
+        }
+    }
+
+    /**
+     * SI txns read like RO txns, without locks, from the versions
+     * committed before they began; but a variable they have written
+     * reads back as the value they wrote.
+     */
+    private void processSIread(Transaction txn, int varToAccess, Command cmd) {
+        if (!canRunTxn(txn)) {
+            removeCommandFromPendingListIfPresent(cmd);
+            return;
+        }
+
+        Site serveSite = findSiteThatCanServeRequestedVariable(varToAccess, txn);
+        if (serveSite == null) {
+            waitForSiteWithVariable(cmd, varToAccess);
+            return;
+        }
+        //in case of site failure
+        updateSiteAndTransactionRecords(serveSite, txn);
+        if (txn.hasWritten(varToAccess)) {
+            int valueRead = txn.getWrittenValue(varToAccess);
+            metrics.recordSiteRead(serveSite.getId());
+            events.publish(EventType.UNCOMMITTED_VALUE_READ, txn.getId(), varToAccess, valueRead,
+                    serveSite.getId(), null);
+        } else {
+            printVariableValueReadByROTransaction(txn.getStartTime(), varToAccess, txn, serveSite);
+        }
+        removeCommandFromPendingListIfPresent(cmd);
+    }
+
+    /**
+     * OPTIMISTIC txns read the latest committed value without a lock and
+     * remember the version for validation; a variable they have written
+     * reads back as the value they wrote.
+     */
+    private void processOptimisticRead(Transaction txn, int varToAccess, Command cmd) {
+        if (!canRunTxn(txn)) {
+            removeCommandFromPendingListIfPresent(cmd);
+            return;
+        }
+
+        if (txn.hasWritten(varToAccess)) {
+            //reported at the first replica the write will be applied to
+            for (int replica = 0; replica < placement.replicaCount(varToAccess); replica ++) {
+                Site site = replicaOf(varToAccess, replica);
+                if (site.getSiteStatus() != SiteStatus.FAILED
+                        && txn.getSitesAccessed().contains(site.getId())) {
+                    metrics.recordSiteRead(site.getId());
+                    events.publish(EventType.UNCOMMITTED_VALUE_READ, txn.getId(), varToAccess,
+                            txn.getWrittenValue(varToAccess), site.getId(), null);
+                    removeCommandFromPendingListIfPresent(cmd);
+                    return;
                 }
             }
-            index --;
+        }
 
-            printVariableValueReadByROTransaction(index, varToAccess,
-                    valueHistoryForVariable, txn, serveSite);
+        Site serveSite = findSiteThatCanServeRequestedVariable(varToAccess, txn);
+        if (serveSite == null) {
+            waitForSiteWithVariable(cmd, varToAccess);
+            return;
+        }
+        //in case of site failure
+        updateSiteAndTransactionRecords(serveSite, txn);
+        txn.recordRead(serveSite.getId(), varToAccess, serveSite.latestVersionNumberOf(varToAccess));
+        metrics.recordSiteRead(serveSite.getId());
+        events.publish(EventType.VALUE_READ, txn.getId(), varToAccess, serveSite.latestValueOf(varToAccess),
+                serveSite.getId(), null);
+        removeCommandFromPendingListIfPresent(cmd);
+    }
 
-            removeCommandFromPendingListIfPresent(cmd);
+    /**
+     * An OPTIMISTIC txn's write is buffered in its write set, without
+     * locks, to be applied at every site holding the variable that is up.
+     */
+    private void bufferOptimisticWrite(Transaction txn, int varToAccess, int valToWrite, Command cmd) {
+        if (noActiveSite(varToAccess)) {
+            waitForSiteWithVariable(cmd, varToAccess);
+            return;
+        }
+        for (int replica = 0; replica < placement.replicaCount(varToAccess); replica ++) {
+            Site site = replicaOf(varToAccess, replica);
+            if (site.getSiteStatus() == SiteStatus.FAILED) {
+                continue;
+            }
+            updateSiteAndTransactionRecords(site, txn);
+            metrics.recordSiteWrite(site.getId());
         }
+        txn.bufferWrite(varToAccess, valToWrite);
+        removeCommandFromPendingListIfPresent(cmd);
+    }
+
+    /**
+     * First committer wins: an SI txn that wrote a variable another txn
+     * committed after the SI txn began aborts instead of committing.
+     * Its write locks keep later commits out, so only a commit between
+     * its start and its locking the variable can be found here.
+     * @return true if txn was aborted
+     */
+    private boolean abortOnWriteConflict(Transaction txn) {
+        if (!canRunTxn(txn)) {
+            return false;
+        }
+        WriteSet writes = txn.getWriteSet();
+        if (writes == null) {
+            return false;
+        }
+        for (Integer siteID : txn.getSitesAccessed()) {
+            Site site = sites[siteID];
+            for (int i = 0; i < writes.size(); i ++) {
+                int variable = writes.variableAt(i);
+                if (!appliesAt(txn, site, variable)) {
+                    continue;
+                }
+                //versions committed in the tick the txn began are not in its snapshot either
+                if (site.latestTimeOf(variable) >= txn.getStartTime()) {
+                    String reasonForAbort = "Transaction " + txn.getId() + " has been aborted because "
+                            + VariableCatalog.nameOf(variable) + " was committed by another transaction"
+                            + " after it began (first committer wins)";
+                    txn.abort(sites, reasonForAbort, events);
+                    metrics.recordAbort(AbortCause.WRITE_CONFLICT);
+                    deadlockPolicy.finished(txn);
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    private void processWrite(Transaction txn, String varToAccess, int valToWrite, Command cmd) {
+    private void processWrite(Transaction txn, int varToAccess, int valToWrite, Command cmd) {
         if (!canRunTxn(txn)) {
             removeCommandFromPendingListIfPresent(cmd);
             return;
         }
         /*
         * if txn already has a write-lock on this variable, just modify the
-        * value of the variable in the local storage of all containing, accessible
-        * sites and return. Do not re-obtain or convert existing write lock as that's
-        * confusing and could get very buggy.
+        * value of the variable in its write set and return. Do not re-obtain
+        * or convert existing write lock as that's confusing and could get very buggy.
         */
-        if (processRepeatedWritesSameTxn(txn.getId(), varToAccess, valToWrite)) {
+        if (txn.getType() == TransactionType.OPTIMISTIC) {
+            bufferOptimisticWrite(txn, varToAccess, valToWrite, cmd);
+            return;
+        }
+        if (processRepeatedWritesSameTxn(txn, varToAccess, valToWrite)) {
             return;
         }
 
-        List<Lock> existingReadLocksForTxn = new ArrayList<Lock>();
-        WriteOperationStatus result = attemptToWrite(varToAccess,
-                txn, cmd, existingReadLocksForTxn);
+        WriteOperationStatus result = attemptToWrite(varToAccess, txn, cmd);
 
         if (result == WriteOperationStatus.ABORTED) {
             return;
         } else if (result == WriteOperationStatus.WAIT) {
             return;
         } else {
-            executeWrite(varToAccess, valToWrite, existingReadLocksForTxn, txn);
+            executeWrite(varToAccess, valToWrite, txn);
             removeCommandFromPendingListIfPresent(cmd);
         }
     }
@@ -558,108 +1716,155 @@ public class TransactionManager {
      * @return true if this is not the first write to the variable by this txn
      *         false otherwise
      */
-    private boolean processRepeatedWritesSameTxn(String txnID, String varToAccess, int valToWrite) {
-        List<Site> sitesWithVariable = variableLocationMap.get(varToAccess);
-        boolean atleastOneSiteHasVariableInLocalStorage = false;
-        for (Site site : sitesWithVariable) {
-            if (site.getSiteStatus() == SiteStatus.FAILED) {
-                continue;
-            }
-            if (site.presentInLocalStorage(txnID, varToAccess)) {
-                atleastOneSiteHasVariableInLocalStorage = true;
-                break;
-            }
-        }
-
+    private boolean processRepeatedWritesSameTxn(Transaction txn, int varToAccess, int valToWrite) {
         //first time write to variable by this txn
-        if (!atleastOneSiteHasVariableInLocalStorage) {
+        if (!txn.hasWritten(varToAccess)) {
             return false;
         }
-        //else: update value on all sites that txn originally wrote to for the first time
-        for (Site site : sitesWithVariable) {
-            if (site.getSiteStatus() == SiteStatus.FAILED) {
-                continue;
-            }
-            site.addToLocalStorage(txnID, varToAccess, valToWrite);
-        }
+        //else: the new value is applied at the sites the txn write-locked the first time
+        txn.bufferWrite(varToAccess, valToWrite);
         return true;
     }
 
-    private void executeWrite(String varToAccess, int valToWrite,
-            List<Lock> existingReadLocksForTxn, Transaction txn) {
-        List<Site> sitesWithVariable = variableLocationMap.get(varToAccess);
-
-        for (Site site : sitesWithVariable) {
+    /**
+     * Take a write lock at every replica that is up and buffer the value.
+     * The txn's own records are updated here; the work at each replica
+     * is done by installWrite, in turn or on the sites' lanes.
+     */
+    private void executeWrite(final int varToAccess, int valToWrite, Transaction txn) {
+        int replicas = placement.replicaCount(varToAccess);
+        boolean parallel = siteLanes != null && replicas > 1;
+        int[] lanes = parallel ? new int[replicas] : null;
+        Runnable[] work = parallel ? new Runnable[replicas] : null;
+        int count = 0;
+        long start = System.nanoTime();
+        for (int replica = 0; replica < replicas; replica ++) {
+            final Site site = replicaOf(varToAccess, replica);
             if (site.getSiteStatus() == SiteStatus.FAILED) {
                 continue;
             }
-            //add to variable-value to local storage/scratch-pad of every containing site
-            site.addToLocalStorage(txn.getId(), varToAccess, valToWrite);
-            //add write lock on every active site that has variable
-            addLock(varToAccess, site, txn, LockType.WRITELOCK);
-            //remove all read locks held by this txn on this variable at any site (from prv step)
-            for (Lock lock : existingReadLocksForTxn) {
-                lock.release(sites);
+            //a read lock of txn's is upgraded in place
+            LockHeader header = site.getLockHeader(varToAccess);
+            Lock readLock = header == null ? null : header.getReadLock(txn.getId());
+            final Lock lock = readLock != null ? readLock
+                    : new Lock(txn.getId(), site.getId(), varToAccess, LockType.WRITELOCK);
+            if (readLock == null) {
+                txn.addLockInformationToTransaction(lock);
+                txn.addSiteToTxn(site.getId());
+            }
+            if (!parallel) {
+                installWrite(site, varToAccess, lock);
+            } else {
+                lanes[count] = site.getId();
+                work[count] = new Runnable() {
+                    public void run() {
+                        installWrite(site, varToAccess, lock);
+                    }
+                };
             }
+            count ++;
+        }
+        if (parallel && count > 0) {
+            siteLanes.runAll(lanes, work, count);
+        }
+        txn.bufferWrite(varToAccess, valToWrite);
+        if (count > 1) {
+            metrics.recordWriteFanOut(System.nanoTime() - start);
         }
     }
 
+    /**
+     * The part of a write that touches one replica's site only: lock,
+     * a new write lock or the txn's read lock, becomes the write lock
+     * there. The value itself waits in the txn's write set until commit.
+     */
+    private void installWrite(Site site, int variable, Lock lock) {
+        String txnId = lock.getTxnIdHoldingLock();
+        if (lock.getTypeOfLock() == LockType.READLOCK) {
+            site.getLockHeader(variable).upgrade(lock);
+        } else {
+            site.addToLockTable(lock);
+            site.addTxnToSite(txnId);
+        }
+        metrics.recordSiteWrite(site.getId());
+    }
+
+    /**
+     * Check every active site holding the variable for locks that stop
+     * currentTxn writing it. Where currentTxn holds the only read lock,
+     * it can upgrade; where other readers remain, its upgrade is queued
+     * ahead of new readers while it waits for them.
+     */
     private WriteOperationStatus attemptToWrite(
-            String varToAccess, Transaction currentTxn, Command cmd,
-            List<Lock> existingReadLocks) {
+            int varToAccess, Transaction currentTxn, Command cmd) {
 
         if (noActiveSite(varToAccess)) {
-            putCommandInPendingListIfAbsent(cmd);
+            waitForSiteWithVariable(cmd, varToAccess);
             return WriteOperationStatus.WAIT;
         }
 
-        List<Site> sitesWithVar = variableLocationMap.get(varToAccess);
-        for (Site site : sitesWithVar) {
+        for (int replica = 0; replica < placement.replicaCount(varToAccess); replica ++) {
+            Site site = replicaOf(varToAccess, replica);
             if (site.getSiteStatus() == SiteStatus.FAILED) {
                 continue;
             }
-            List<Lock> locksOnVar = site.getLocksForVariable(varToAccess);
-            if (locksOnVar == null) {
+            LockHeader header = site.getLockHeader(varToAccess);
+            if (header == null || header.isFree()) {
+                continue;
+            }
+            Lock readLock = header.getReadLock(currentTxn.getId());
+            if (readLock != null && header.canUpgrade(readLock)) {
                 continue;
             }
+            /*
+            Two readers each waiting for the other to go before upgrading
+            are deadlocked: caught here without any search, and resolved by
+            the deadlock policy as a conflict with the queued upgrade.
+             */
+            String queuedUpgrade = header.getQueuedUpgrade();
+            if (readLock != null && queuedUpgrade != null && !queuedUpgrade.equals(currentTxn.getId())) {
+                return resolveLockConflict(currentTxn, transactionMap.get(queuedUpgrade),
+                        cmd, site, varToAccess);
+            }
 
-            for (Lock lock : locksOnVar) {
-                String otherTxnId = lock.getTxnIdHoldingLock();
-                Transaction otherTxn = transactionMap.get(otherTxnId);
-                /*
-                  existing read lock on variable and site by the currentTxn - ok
-                  but needs to be removed after acquiring write-locks
-                 */
-                if (otherTxn.getId().equals(currentTxn.getId())) {
-                    existingReadLocks.add(lock);
-                    continue;
+            for (Lock lock : header.getReadLocks()) {
+                WriteOperationStatus status = resolveWriteConflict(lock, site, currentTxn, cmd);
+                if (status == WriteOperationStatus.WAIT && readLock != null) {
+                    header.queueUpgrade(currentTxn.getId());
                 }
-                if (currentTxn.isYoungerThan(otherTxn)) {
-                    String reasonForAbort = ("Transaction " + currentTxn.getId() +
-                            " was aborted (wait-die) because it was waiting on a lock" +
-                            " held by Transaction " + otherTxn.getId());
-                    currentTxn.abort(sites, reasonForAbort);
-                    return WriteOperationStatus.ABORTED;
-                } else {
-                    /*
-                    currentTxn is older than otherTxn holding lock, must wait.
-                    Note: this cmd is added to pendingList. On a later site, this
-                    txn might abort as it might encounter an older txn with lock on
-                    variable. Then, it still remains in pendingList. However, this
-                    is ok, as when we process pendingList cmds, this transaction will
-                    be aborted and that command for the txn will be ignored.
-                     */
-                    putCommandInPendingListIfAbsent(cmd);
-                    return WriteOperationStatus.WAIT;
+                if (status != WriteOperationStatus.WRITE) {
+                    return status;
+                }
+            }
+            if (header.isWriteLocked()) {
+                WriteOperationStatus status = resolveWriteConflict(header.getWriteLock(),
+                        site, currentTxn, cmd);
+                if (status != WriteOperationStatus.WRITE) {
+                    return status;
                 }
             }
         }
         return WriteOperationStatus.WRITE;
     }
 
-    private boolean noActiveSite(String variable) {
-        List<Site> sites = variableLocationMap.get(variable);
-        for (Site site : sites) {
+    /**
+     * Decide what a write by currentTxn does about a lock already held on the variable.
+     * @return WRITE if the lock does not stop the write, WAIT or ABORTED otherwise
+     */
+    private WriteOperationStatus resolveWriteConflict(Lock lock, Site site,
+            Transaction currentTxn, Command cmd) {
+        String otherTxnId = lock.getTxnIdHoldingLock();
+        Transaction otherTxn = transactionMap.get(otherTxnId);
+        //existing read lock on variable and site by the currentTxn - upgraded by executeWrite
+        if (otherTxn.getId().equals(currentTxn.getId())) {
+            return WriteOperationStatus.WRITE;
+        }
+        return resolveLockConflict(currentTxn, otherTxn, cmd, site, lock.getVariableLocked());
+    }
+
+    private boolean noActiveSite(int variable) {
+        for (int replica = 0; replica < placement.replicaCount(variable); replica ++) {
+            Site site = replicaOf(variable, replica);
             if (site.getSiteStatus() != SiteStatus.FAILED) {
                 return false;
             }
@@ -1,3 +1,9 @@
+/**
+ * REGULAR txns use 2PL for reads and writes, READONLY txns read the
+ * versions as of their start, and SNAPSHOT (snapshot isolation) txns
+ * read like READONLY ones but write like REGULAR ones. OPTIMISTIC
+ * txns take no locks and are validated when they commit.
+ */
 public enum TransactionType {
-    READONLY, REGULAR;
+    READONLY, REGULAR, SNAPSHOT, OPTIMISTIC;
 }
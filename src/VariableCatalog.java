@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/**
+ * Maps variable names (x1, x2, ...) to the integer ids used
+ * to index per-site storage. A name is parsed once when the
+ * command is read in; everything downstream works on the id.
+ * Variable xN has id N, so ids start at 1.
+ */
+public final class VariableCatalog {
+    private static String[] names = new String[64];
+
+    private VariableCatalog() {
+    }
+
+    /**
+     * Parses the id out of a variable name without
+     * creating any intermediate strings.
+     * @param name variable name, eg. x12
+     * @return id of the variable, eg. 12
+     */
+    public static int idOf(CharSequence name) {
+        int id = 0;
+        for (int i = 1; i < name.length(); i ++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Not a variable name: " + name);
+            }
+            id = 10 * id + (c - '0');
+        }
+        return id;
+    }
+
+    /**
+     * Name of the variable, for output only. Names are built
+     * once per id and cached.
+     */
+    public static synchronized String nameOf(int id) {
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(id + 1, 2 * names.length));
+        }
+        String name = names[id];
+        if (name == null) {
+            name = "x" + id;
+            names[id] = name;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Committed versions of one variable at one site, oldest first.
+ * Versions are appended in commit order, so their times never
+ * decrease and the version visible at a given time can be found
+ * by binary search.
+ *
+ * Each version is one long, its commit time in the high half and its
+ * value in the low half, in a growable array: no object per version,
+ * and reads allocate nothing. A parallel int array holds the number of
+ * each version. Every commit of the variable gets the next number,
+ * whichever replicas it reaches. So a replica that missed commits has
+ * lower numbers than its peers, even for commits made in the same tick.
+ */
+public class VersionChain {
+    //Heap per version: one slot of the long[] and one of the int[]
+    static final int BYTES_PER_VERSION = 12;
+
+    private long[] versions;
+    //Number of each version, ascending
+    private int[] numbers;
+    private int size;
+
+    /** A chain holding one version, the first of the variable */
+    public VersionChain(int value, int time) {
+        this(value, time, 1);
+    }
+
+    public VersionChain(int value, int time, int versionNumber) {
+        versions = new long[] {pack(value, time)};
+        numbers = new int[] {versionNumber};
+        size = 1;
+    }
+
+    private static long pack(int value, int time) {
+        return ((long) time << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private static int valueOf(long version) {
+        return (int) version;
+    }
+
+    private static int timeOf(long version) {
+        return (int) (version >>> 32);
+    }
+
+    /** @param versionNumber above the latest one here */
+    public void add(int value, int time, int versionNumber) {
+        if (size == versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(2, 2 * size));
+            numbers = Arrays.copyOf(numbers, versions.length);
+        }
+        versions[size] = pack(value, time);
+        numbers[size ++] = versionNumber;
+    }
+
+    public int valueAt(int index) {
+        return valueOf(versions[index]);
+    }
+
+    public int timeAt(int index) {
+        return timeOf(versions[index]);
+    }
+
+    public int latestValue() {
+        return valueAt(size - 1);
+    }
+
+    public int latestTime() {
+        return timeAt(size - 1);
+    }
+
+    public int versionNumberAt(int index) {
+        return numbers[index];
+    }
+
+    public int latestVersionNumber() {
+        return versionNumberAt(size - 1);
+    }
+
+    /** Index of the first version numbered above versionNumber, size() if there is none */
+    public int indexAfterVersion(int versionNumber) {
+        int index = size;
+        //the versions looked for are the newest ones, and usually few
+        while (index > 0 && numbers[index - 1] > versionNumber) {
+            index --;
+        }
+        return index;
+    }
+
+    /**
+     * Index of the last version committed strictly before time,
+     * or -1 if there is none. O(log n) in the length of the chain.
+     */
+    public int floorIndexBefore(int time) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timeAt(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /** Value of the last version committed strictly before time; there must be one */
+    public int valueBefore(int time) {
+        return valueAt(floorIndexBefore(time));
+    }
+
+    /**
+     * Drop every version that no read at or after watermark can see:
+     * all versions older than the last one committed before watermark.
+     * The array shrinks once it is mostly empty.
+     * @return number of versions dropped
+     */
+    public int trimBefore(int watermark) {
+        int keepFrom = floorIndexBefore(watermark);
+        if (keepFrom <= 0) {
+            return 0;
+        }
+        size -= keepFrom;
+        if (versions.length >= 4 * size) {
+            versions = Arrays.copyOfRange(versions, keepFrom, keepFrom + 2 * size);
+            numbers = Arrays.copyOfRange(numbers, keepFrom, keepFrom + 2 * size);
+        } else {
+            System.arraycopy(versions, keepFrom, versions, 0, size);
+            System.arraycopy(numbers, keepFrom, numbers, 0, size);
+        }
+        return keepFrom;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Read-only view of the versions, oldest first. It reflects later
+     * commits and trims; each element is made when it is asked for.
+     */
+    public List<ValueTimeStamp> asList() {
+        return new AbstractList<ValueTimeStamp>() {
+            public ValueTimeStamp get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Version " + index + " of " + size);
+                }
+                return new ValueTimeStamp(valueAt(index), timeAt(index));
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Incremental garbage collector for old versions.
+ *
+ * The low watermark is the start time of the oldest active
+ * read-only or snapshot-isolation transaction. They read the last
+ * version committed before they began, so for each variable only the newest version
+ * before the watermark and the versions after it can still be read.
+ * Everything older is dropped. Each run visits a bounded number of
+ * recently written chains per site, so a tick never stalls on GC.
+ */
+public class VersionCollector {
+    //Chains visited per site on each run
+    static final int CHAINS_PER_SITE_PER_RUN = 32;
+
+    /**
+     * @param sites all sites of the database
+     * @param watermark versions before the last one committed
+     *                  strictly before this time are reclaimed
+     * @return number of versions reclaimed by this run
+     */
+    public int collect(Site[] sites, int watermark) {
+        int reclaimed = 0;
+        for (Site site : sites) {
+            if (site == null) {
+                continue;
+            }
+            reclaimed += site.collectOldVersions(watermark, CHAINS_PER_SITE_PER_RUN);
+        }
+        return reclaimed;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Wait-die: an older txn waits for a younger one, a younger txn
+ * aborts rather than wait for an older one. Waits only ever go from
+ * older to younger txns, so there can be no cycle of them.
+ */
+public class WaitDiePolicy implements DeadlockPolicy {
+
+    public Transaction resolveConflict(Transaction requester, Transaction holder, Command cmd) {
+        return requester.isYoungerThan(holder) ? requester : null;
+    }
+
+    public void stopWaiting(Transaction requester, Command cmd) {
+    }
+
+    public void finished(Transaction txn) {
+    }
+
+    public String reasonForAbort(Transaction victim, Transaction requester, Transaction holder) {
+        return "Transaction " + victim.getId() +
+                " was aborted (wait-die) because it was waiting on a lock" +
+                " held by Transaction " + holder.getId();
+    }
+
+    public AbortCause getAbortCause() {
+        return AbortCause.WAIT_DIE;
+    }
+
+    public String getName() {
+        return "wait-die";
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Commands blocked on one resource: the locks on a variable
+ * at a site, or a failed site coming back up.
+ * When the resource changes, every waiter is handed back to
+ * the PendingCommands it belongs to, to be retried.
+ * A command is parked at most once per queue. Thread-safe.
+ */
+public class WaitQueue {
+    private final PendingCommands owner;
+    private Set<Command> waiters;
+
+    public WaitQueue(PendingCommands owner) {
+        this.owner = owner;
+        waiters = new LinkedHashSet<Command>();
+    }
+
+    public synchronized void park(Command cmd) {
+        waiters.add(cmd);
+    }
+
+    public synchronized boolean isEmpty() {
+        return waiters.isEmpty();
+    }
+
+    public synchronized int size() {
+        return waiters.size();
+    }
+
+    /** Resource changed - hand every waiter back to be retried */
+    public synchronized void wakeAll() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        Iterator<Command> it = waiters.iterator();
+        while (it.hasNext()) {
+            Command cmd = it.next();
+            it.remove();
+            owner.makeReady(cmd);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.*;
+
+/**
+ * Waits-for graph of RW txns blocked on locks: an edge goes from a
+ * waiting txn to each txn holding a lock one of its commands waits
+ * for. It is kept up to date as commands block, retry and txns
+ * finish, so a cycle is found when the edge closing it is added,
+ * by searching only from that edge. Thread-safe.
+ */
+public class WaitsForGraph {
+    //Waiting txn -> its blocked commands -> txns each of them waits for
+    private final Map<Transaction, Map<Command, Set<Transaction>>> waitsFor;
+
+    public WaitsForGraph() {
+        waitsFor = new HashMap<Transaction, Map<Command, Set<Transaction>>>();
+    }
+
+    /**
+     * Record that cmd of waiter waits for holder.
+     * @return the txns on the cycle this closes, starting with waiter
+     *         then holder, or null if waiter is not deadlocked
+     */
+    public synchronized List<Transaction> addEdge(Transaction waiter, Command cmd, Transaction holder) {
+        Map<Command, Set<Transaction>> commands = waitsFor.get(waiter);
+        if (commands == null) {
+            commands = new HashMap<Command, Set<Transaction>>();
+            waitsFor.put(waiter, commands);
+        }
+        Set<Transaction> holders = commands.get(cmd);
+        if (holders == null) {
+            holders = new HashSet<Transaction>();
+            commands.put(cmd, holders);
+        }
+        holders.add(holder);
+        return findPath(holder, waiter);
+    }
+
+    public synchronized void removeCommand(Transaction waiter, Command cmd) {
+        Map<Command, Set<Transaction>> commands = waitsFor.get(waiter);
+        if (commands == null) {
+            return;
+        }
+        commands.remove(cmd);
+        if (commands.isEmpty()) {
+            waitsFor.remove(waiter);
+        }
+    }
+
+    /**
+     * Drop the edges out of a finished txn. Edges into it go once the
+     * commands waiting for it are retried; a finished txn waits for
+     * nothing, so they cannot be part of a cycle meanwhile.
+     */
+    public synchronized void removeTransaction(Transaction txn) {
+        waitsFor.remove(txn);
+    }
+
+    /**
+     * Depth-first search along the edges, skipping txns that are about
+     * to abort (their locks are being released).
+     * @return waiter followed by the txns on a path from start to waiter,
+     *         or null if there is none
+     */
+    private List<Transaction> findPath(Transaction start, Transaction waiter) {
+        Map<Transaction, Transaction> reachedFrom = new HashMap<Transaction, Transaction>();
+        Deque<Transaction> toVisit = new ArrayDeque<Transaction>();
+        reachedFrom.put(start, waiter);
+        toVisit.push(start);
+        while (!toVisit.isEmpty()) {
+            Transaction txn = toVisit.pop();
+            if (txn == waiter) {
+                LinkedList<Transaction> cycle = new LinkedList<Transaction>();
+                for (Transaction t = reachedFrom.get(waiter); t != waiter; t = reachedFrom.get(t)) {
+                    cycle.addFirst(t);
+                }
+                cycle.addFirst(waiter);
+                return cycle;
+            }
+            if (txn.getStatus() != TransactionStatus.ACTIVE || txn.getRequestedAbortReason() != null) {
+                continue;
+            }
+            Map<Command, Set<Transaction>> commands = waitsFor.get(txn);
+            if (commands == null) {
+                continue;
+            }
+            for (Set<Transaction> holders : commands.values()) {
+                for (Transaction next : holders) {
+                    if (!reachedFrom.containsKey(next)) {
+                        reachedFrom.put(next, txn);
+                        toVisit.push(next);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
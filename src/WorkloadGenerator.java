@@ -0,0 +1,395 @@
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Synthetic transaction mixes, at any scale, for the TransactionManager.
+ *
+ * A fixed number of txns are kept in flight. Every tick, each of them
+ * that is not blocked issues its next command (begin, a read or write,
+ * or end), all on one line as in the input file, and a txn that ends
+ * or aborts is replaced by a new one, at most one per tick, so txns
+ * begin in a steady trickle as in the original test files. Every
+ * failEvery ticks a random running site fails, and recovers
+ * recoverAfter ticks later. A txn whose command stays blocked for
+ * stallTicks is aborted (see TransactionManager.abandon): with sites
+ * failing often enough, a read can be left with no replica able to
+ * serve it, and the run would never end.
+ *
+ * In "run" mode the generator drives a TransactionManager directly and
+ * reports throughput, abort rate (also per commit, to compare deadlock
+ * policies and 2PL with OCC) and commit latency percentiles,
+ * followed by the engine's metrics (see EngineMetrics).
+ * In "emit" mode it prints the same kind of mix in the input file
+ * grammar instead (blind to blocking and aborts), eg. to feed
+ * "java TransactionManager -".
+ *
+ * Usage: java WorkloadGenerator [knob=value ...]
+ *   mode=run|emit      run (default) or print the workload
+ *   txns=N             txns to start (10000)
+ *   inFlight=N         txns running at once (8)
+ *   roRatio=F          fraction of txns that are read-only (0.2)
+ *   siRatio=F          fraction of the other txns begun with beginSI (0)
+ *   opsPerTxn=N        reads and writes per txn (4)
+ *   writeRatio=F       fraction of RW txn ops that are writes (0.5)
+ *   zipf=F             Zipf skew over the variables; 0 is uniform (0.99)
+ *   replicatedRatio=F  fraction of ops on replicated variables (0.5)
+ *   failEvery=N        ticks between site failures; 0 never fails (0)
+ *   recoverAfter=N     ticks a failed site stays down (20)
+ *   stallTicks=N       ticks a command may stay blocked (max(100, 5 * recoverAfter))
+ *   seed=N             random seed (1)
+ * Sites, variables and their placement are set by the same system
+ * properties as for the TransactionManager (see fromSystemProperties).
+ */
+public class WorkloadGenerator {
+    private final TransactionManager tm;
+    private final Random random;
+    private final int txnsToStart;
+    private final int inFlight;
+    private final double roRatio;
+    private final double siRatio;
+    private final int opsPerTxn;
+    private final double writeRatio;
+    private final double replicatedRatio;
+    private final int failEvery;
+    private final int recoverAfter;
+    private final int stallTicks;
+    //Zipf ranks over each variable pool; rank 0 is the hottest variable
+    private final ZipfDistribution replicatedKeys;
+    private final ZipfDistribution singleSiteKeys;
+    private final int[] replicatedVariables;
+    private final int[] singleSiteVariables;
+
+    private int txnsStarted = 0;
+    //Site -> tick it recovers at
+    private final Map<Integer, Integer> failedSites = new LinkedHashMap<Integer, Integer>();
+
+    public WorkloadGenerator(TransactionManager tm, Map<String, String> knobs) {
+        this.tm = tm;
+        random = new Random(Long.parseLong(knob(knobs, "seed", "1")));
+        txnsToStart = Integer.parseInt(knob(knobs, "txns", "10000"));
+        inFlight = Integer.parseInt(knob(knobs, "inFlight", "8"));
+        roRatio = Double.parseDouble(knob(knobs, "roRatio", "0.2"));
+        siRatio = Double.parseDouble(knob(knobs, "siRatio", "0"));
+        opsPerTxn = Integer.parseInt(knob(knobs, "opsPerTxn", "4"));
+        writeRatio = Double.parseDouble(knob(knobs, "writeRatio", "0.5"));
+        replicatedRatio = Double.parseDouble(knob(knobs, "replicatedRatio", "0.5"));
+        failEvery = Integer.parseInt(knob(knobs, "failEvery", "0"));
+        recoverAfter = Integer.parseInt(knob(knobs, "recoverAfter", "20"));
+        stallTicks = Integer.parseInt(knob(knobs, "stallTicks", String.valueOf(Math.max(100, 5 * recoverAfter))));
+        double skew = Double.parseDouble(knob(knobs, "zipf", "0.99"));
+
+        List<Integer> replicated = new ArrayList<Integer>();
+        List<Integer> singleSite = new ArrayList<Integer>();
+        for (int var = 1; var <= tm.getVariableCount(); var ++) {
+            if (tm.getPlacement().isReplicated(var)) {
+                replicated.add(var);
+            } else {
+                singleSite.add(var);
+            }
+        }
+        replicatedVariables = shuffled(replicated);
+        singleSiteVariables = shuffled(singleSite);
+        replicatedKeys = new ZipfDistribution(replicatedVariables.length, skew);
+        singleSiteKeys = new ZipfDistribution(singleSiteVariables.length, skew);
+    }
+
+    private static String knob(Map<String, String> knobs, String name, String defaultValue) {
+        String value = knobs.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /** Hot variables are spread over the key space, not just the lowest ids */
+    private int[] shuffled(List<Integer> variables) {
+        Collections.shuffle(variables, random);
+        int[] result = new int[variables.size()];
+        for (int i = 0; i < result.length; i ++) {
+            result[i] = variables.get(i);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> knobs = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected knob=value, got " + arg);
+            }
+            knobs.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        boolean emit = "emit".equals(knob(knobs, "mode", "run"));
+        WorkloadGenerator generator = new WorkloadGenerator(TransactionManager.fromSystemProperties(), knobs);
+        if (!knobs.isEmpty()) {
+            throw new IllegalArgumentException("Unknown knobs " + knobs.keySet());
+        }
+        if (emit) {
+            generator.emit(System.out);
+        } else {
+            generator.run();
+        }
+    }
+
+    /** A txn in flight and the commands it has left to issue */
+    private class GeneratedTxn {
+        final String id;
+        final boolean readOnly;
+        final boolean snapshot;
+        int opsLeft;
+        boolean ended = false;
+        Command lastIssued;
+        int issuedTick;
+        final int beginTick;
+        final long beginNanos;
+
+        GeneratedTxn(int tick) {
+            id = "T" + (++ txnsStarted);
+            readOnly = random.nextDouble() < roRatio;
+            //no extra draw unless asked for, so a seed gives the same mix as before
+            snapshot = !readOnly && siRatio > 0 && random.nextDouble() < siRatio;
+            opsLeft = opsPerTxn;
+            beginTick = tick;
+            beginNanos = System.nanoTime();
+        }
+
+        Command begin() {
+            if (readOnly) {
+                return new Command(Operation.BEGINRO, id);
+            }
+            return new Command(snapshot ? Operation.BEGINSI : Operation.BEGIN, id);
+        }
+
+        /** Next read or write, or end once the ops are used up */
+        Command next() {
+            if (opsLeft == 0) {
+                ended = true;
+                return new Command(Operation.END, id);
+            }
+            opsLeft --;
+            int var = nextVariable();
+            if (readOnly || random.nextDouble() >= writeRatio) {
+                return new Command(Operation.READ, id, var);
+            }
+            Command write = new Command(Operation.WRITE, id, var);
+            write.setToWriteValue(random.nextInt(1000));
+            return write;
+        }
+    }
+
+    /** With a placement that replicates all variables or none, one pool is empty */
+    private int nextVariable() {
+        boolean replicated = random.nextDouble() < replicatedRatio;
+        if (singleSiteVariables.length == 0 || (replicated && replicatedVariables.length > 0)) {
+            return replicatedVariables[replicatedKeys.next(random)];
+        }
+        return singleSiteVariables[singleSiteKeys.next(random)];
+    }
+
+    /** Site failures and recoveries due at tick */
+    private List<Command> siteEvents(int tick) {
+        List<Command> events = new ArrayList<Command>();
+        Iterator<Map.Entry<Integer, Integer>> failed = failedSites.entrySet().iterator();
+        while (failed.hasNext()) {
+            Map.Entry<Integer, Integer> site = failed.next();
+            if (site.getValue() <= tick) {
+                events.add(new Command(Operation.RECOVER, site.getKey()));
+                failed.remove();
+            }
+        }
+        //keep at least one site up
+        if (failEvery > 0 && tick % failEvery == 0 && failedSites.size() < tm.getSiteCount() - 1) {
+            int site;
+            do {
+                site = 1 + random.nextInt(tm.getSiteCount());
+            } while (failedSites.containsKey(site));
+            failedSites.put(site, tick + recoverAfter);
+            events.add(new Command(Operation.FAIL, site));
+        }
+        return events;
+    }
+
+    /** Print the workload in the input file grammar, one tick per line */
+    public void emit(PrintStream out) {
+        List<GeneratedTxn> running = new ArrayList<GeneratedTxn>();
+        StringBuilder line = new StringBuilder();
+        for (int tick = 1; txnsStarted < txnsToStart || !running.isEmpty(); tick ++) {
+            line.setLength(0);
+            for (Command event : siteEvents(tick)) {
+                appendCommand(line, event);
+            }
+            for (int i = 0; i < running.size(); i ++) {
+                GeneratedTxn txn = running.get(i);
+                appendCommand(line, txn.next());
+                if (txn.ended) {
+                    running.remove(i --);
+                }
+            }
+            if (running.size() < inFlight && txnsStarted < txnsToStart) {
+                GeneratedTxn txn = new GeneratedTxn(tick);
+                running.add(txn);
+                appendCommand(line, txn.begin());
+            }
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    private static void appendCommand(StringBuilder line, Command cmd) {
+        if (line.length() > 0) {
+            line.append("; ");
+        }
+        switch (cmd.getOperation()) {
+            case BEGIN:
+                line.append("begin(").append(cmd.getTransaction()).append(')');
+                break;
+            case BEGINRO:
+                line.append("beginRO(").append(cmd.getTransaction()).append(')');
+                break;
+            case BEGINSI:
+                line.append("beginSI(").append(cmd.getTransaction()).append(')');
+                break;
+            case END:
+                line.append("end(").append(cmd.getTransaction()).append(')');
+                break;
+            case READ:
+                line.append("R(").append(cmd.getTransaction()).append(',')
+                        .append(cmd.getVar()).append(')');
+                break;
+            case WRITE:
+                line.append("W(").append(cmd.getTransaction()).append(',')
+                        .append(cmd.getVar()).append(',').append(cmd.getToWriteValue()).append(')');
+                break;
+            case FAIL:
+                line.append("fail(").append(cmd.getSiteAffected()).append(')');
+                break;
+            case RECOVER:
+                line.append("recover(").append(cmd.getSiteAffected()).append(')');
+                break;
+            default:
+                throw new IllegalArgumentException("Not generated: " + cmd.getOperation());
+        }
+    }
+
+    /** Drive a TransactionManager with the workload and print what it measured */
+    public void run() {
+        tm.initialize();
+        List<GeneratedTxn> running = new ArrayList<GeneratedTxn>();
+        List<Command> line = new ArrayList<Command>();
+        long commits = 0;
+        long aborts = 0;
+        long stalled = 0;
+        int[] latencyTicks = new int[txnsToStart];
+        long[] latencyNanos = new long[txnsToStart];
+
+        //only the measurements are printed; the engine's own events are not wanted here
+        tm.setEventSink(new NoOpEventSink());
+        long start = System.nanoTime();
+        int tick = 0;
+        while (txnsStarted < txnsToStart || !running.isEmpty()) {
+            tm.incrementTime();
+            tick = tm.getTime();
+            line.clear();
+            line.addAll(siteEvents(tick));
+            for (GeneratedTxn txn : running) {
+                //a blocked txn waits for its command to be retried
+                if (txn.lastIssued == null || !txn.lastIssued.isInPendingList()) {
+                    txn.lastIssued = txn.next();
+                    txn.issuedTick = tick;
+                    line.add(txn.lastIssued);
+                } else if (tick - txn.issuedTick >= stallTicks) {
+                    tm.abandon(txn.id, "it was blocked for " + stallTicks + " ticks");
+                    stalled ++;
+                }
+            }
+            if (running.size() < inFlight && txnsStarted < txnsToStart) {
+                GeneratedTxn txn = new GeneratedTxn(tick);
+                running.add(txn);
+                line.add(txn.begin());
+            }
+            for (Command cmd : line) {
+                tm.execute(cmd);
+            }
+            tm.endTick();
+
+            Iterator<GeneratedTxn> inFlightTxns = running.iterator();
+            while (inFlightTxns.hasNext()) {
+                GeneratedTxn txn = inFlightTxns.next();
+                TransactionStatus status = tm.getTransaction(txn.id).getStatus();
+                if (status == TransactionStatus.COMMITTED) {
+                    latencyTicks[(int) commits] = tm.getTime() - txn.beginTick;
+                    latencyNanos[(int) commits] = System.nanoTime() - txn.beginNanos;
+                    commits ++;
+                    inFlightTxns.remove();
+                } else if (status == TransactionStatus.ABORTED) {
+                    aborts ++;
+                    inFlightTxns.remove();
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Ticks = %d, txns = %d, committed = %d, aborted = %d (%.1f%%)%n",
+                tick, txnsStarted, commits, aborts, 100.0 * aborts / Math.max(1, commits + aborts));
+        if (stalled > 0) {
+            System.out.printf("Aborted %d txns blocked for %d ticks%n", stalled, stallTicks);
+        }
+        System.out.printf("Concurrency control = %s, deadlock policy = %s, aborts per commit = %.3f%n",
+                tm.isOptimistic() ? "occ" : "2pl", tm.getDeadlockPolicy().getName(),
+                (double) aborts / Math.max(1, commits));
+        long reads = 0;
+        long busiestSiteReads = 0;
+        for (int siteId = 1; siteId <= tm.getSiteCount(); siteId ++) {
+            long siteReads = tm.getMetrics().getSiteReads(siteId);
+            reads += siteReads;
+            busiestSiteReads = Math.max(busiestSiteReads, siteReads);
+        }
+        System.out.printf("Replica selection = %s, busiest site served %.1f%% of reads%n",
+                tm.getReplicaSelector().getName(), 100.0 * busiestSiteReads / Math.max(1, reads));
+        System.out.printf("Throughput = %.0f commits/s, %.3f commits/tick%n",
+                commits / seconds, (double) commits / Math.max(1, tick));
+        Arrays.sort(latencyTicks, 0, (int) commits);
+        Arrays.sort(latencyNanos, 0, (int) commits);
+        System.out.printf("Commit latency (ticks): p50 = %d, p95 = %d, p99 = %d, max = %d%n",
+                percentile(latencyTicks, commits, 50), percentile(latencyTicks, commits, 95),
+                percentile(latencyTicks, commits, 99), percentile(latencyTicks, commits, 100));
+        System.out.printf("Commit latency (us): p50 = %.1f, p95 = %.1f, p99 = %.1f, max = %.1f%n",
+                percentile(latencyNanos, commits, 50) / 1e3, percentile(latencyNanos, commits, 95) / 1e3,
+                percentile(latencyNanos, commits, 99) / 1e3, percentile(latencyNanos, commits, 100) / 1e3);
+        System.out.print(tm.getMetricsReport());
+    }
+
+    /** Nearest-rank percentile of the first count (sorted) values */
+    private static int percentile(int[] sorted, long count, int p) {
+        return count == 0 ? 0 : sorted[rank(count, p)];
+    }
+
+    private static long percentile(long[] sorted, long count, int p) {
+        return count == 0 ? 0 : sorted[rank(count, p)];
+    }
+
+    private static int rank(long count, int p) {
+        return (int) Math.max(0, Math.ceil(p / 100.0 * count) - 1);
+    }
+
+    /** Ranks 0..n-1 with P(rank k) proportional to 1 / (k + 1)^skew */
+    static class ZipfDistribution {
+        private final double[] cumulative;
+
+        ZipfDistribution(int n, double skew) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k ++) {
+                sum += 1 / Math.pow(k + 1, skew);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k ++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            //not found: binarySearch returns -(insertion point) - 1
+            return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+        }
+    }
+}
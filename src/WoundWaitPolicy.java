@@ -0,0 +1,34 @@
+/**
+ * Wound-wait: an older txn aborts ("wounds") a younger one holding
+ * the lock it needs, a younger txn waits for an older one. Waits only
+ * ever go from younger to older txns, so there can be no cycle of
+ * them. Unlike wait-die, a txn is never aborted for asking for a lock,
+ * only for holding one an older txn needs, so a long txn that got its
+ * locks early is not thrown away by every conflict.
+ */
+public class WoundWaitPolicy implements DeadlockPolicy {
+
+    public Transaction resolveConflict(Transaction requester, Transaction holder, Command cmd) {
+        return holder.isYoungerThan(requester) ? holder : null;
+    }
+
+    public void stopWaiting(Transaction requester, Command cmd) {
+    }
+
+    public void finished(Transaction txn) {
+    }
+
+    public String reasonForAbort(Transaction victim, Transaction requester, Transaction holder) {
+        return "Transaction " + victim.getId() +
+                " was aborted (wound-wait) because it held a lock" +
+                " needed by older Transaction " + requester.getId();
+    }
+
+    public AbortCause getAbortCause() {
+        return AbortCause.WOUND_WAIT;
+    }
+
+    public String getName() {
+        return "wound-wait";
+    }
+}
@@ -0,0 +1,365 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log of committed writes, one record per
+ * committing transaction that wrote something:
+ *
+ *   [int payload length][payload][int CRC32 of payload]
+ *   payload = [int commit time][UTF txn id][int n]
+ *             n x [int site][int variable][int value]
+ *
+ * Records are buffered in memory and made durable in groups: sync()
+ * writes every buffered record with a single fsync. The TM calls it
+ * once per tick, or, with a group commit window, committing threads
+ * wait in awaitDurable() and the first one whose window runs out
+ * syncs for everyone waiting.
+ *
+ * A record with txn id CATCH_UP holds replicas a recovered site copied
+ * from a peer instead of a commit.
+ *
+ * On restart, replay() re-applies every complete record and cuts off
+ * a torn record at the tail. A commit that skipped a replica of a
+ * variable (its site was down) leaves that replica unreadable, as it
+ * was before the restart, until a later record writes it. Once a checkpoint holds every commit up
+ * to some point, discardBefore() drops those records from the front of
+ * the file, so a restart only replays what came after the checkpoint.
+ * Log positions (LSNs) keep counting from the start of the log as first
+ * created; the file itself starts at baseLsn.
+ */
+public class WriteAheadLog {
+    //One write in a commit record: site, variable, value
+    static final int INTS_PER_WRITE = 3;
+    //Txn id of the records of replicas caught up (see TransactionManager.enableCatchUp)
+    static final String CATCH_UP = "catch-up";
+
+    private final Path path;
+    //Replaced when the front of the log is discarded; guarded by syncLock once replayed
+    private FileChannel channel;
+    private final long windowNanos;
+    //LSN of the first byte in the file
+    private long baseLsn = 0;
+
+    //Records appended but not yet synced
+    private ByteArrayOutputStream buffer;
+    private DataOutputStream bufferOut;
+    //Log positions: end of the last appended record, end of the last durable one
+    private long appendedLsn;
+    private long durableLsn;
+    private int bufferedRecords = 0;
+    private long bufferedAppendNanos = 0;
+    //One sync at a time; taken before this object's monitor
+    private final Object syncLock = new Object();
+
+    private long syncs = 0;
+    private long recordsSynced = 0;
+    private int maxBatch = 0;
+    private long totalCommitLatencyNanos = 0;
+
+    /**
+     * @param path log file; created if it does not exist
+     * @param groupCommitMillis how long a committing thread waits for
+     *                          others to join its sync; 0 to sync per tick
+     */
+    public WriteAheadLog(String path, double groupCommitMillis) throws IOException {
+        this.path = Paths.get(path);
+        channel = FileChannel.open(this.path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        windowNanos = (long) (groupCommitMillis * 1000000);
+        buffer = new ByteArrayOutputStream();
+        bufferOut = new DataOutputStream(buffer);
+    }
+
+    public boolean hasGroupCommitWindow() {
+        return windowNanos > 0;
+    }
+
+    /**
+     * Re-apply the committed writes in the log to the sites and position
+     * the log for appending after the last complete record.
+     * @param fromTime records committed before this time are already in the
+     *                 sites (restored from a checkpoint) and are skipped
+     * @return commit time of the last record, 0 for an empty log
+     */
+    public int replay(Site[] sites, int fromTime) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path)));
+        long validEnd = 0;
+        int lastTime = 0;
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                int crc;
+                try {
+                    in.readFully(payload);
+                    crc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) {
+                    break;
+                }
+                lastTime = applyRecord(payload, sites, fromTime);
+                validEnd += 4 + length + 4;
+            }
+        } finally {
+            in.close();
+        }
+        //drop a torn record left by a crash mid-write
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+        appendedLsn = validEnd;
+        durableLsn = validEnd;
+        return lastTime;
+    }
+
+    /** End of the last record made durable so far */
+    public synchronized long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Drop the records that end at or before lsn, once a checkpoint
+     * holds all of them. The rest of the log is copied to a new file
+     * that replaces the log in one rename, so a crash leaves either the
+     * old log or the new one. Records appended meanwhile stay buffered
+     * and go to the new file.
+     */
+    public void discardBefore(long lsn) throws IOException {
+        synchronized (syncLock) {
+            long cut;
+            long end;
+            synchronized (this) {
+                cut = Math.min(lsn, durableLsn);
+                end = durableLsn;
+            }
+            if (cut <= baseLsn) {
+                return;
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            FileChannel rest = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long position = cut - baseLsn;
+                while (position < end - baseLsn) {
+                    position += channel.transferTo(position, end - baseLsn - position, rest);
+                }
+                rest.force(false);
+            } catch (IOException e) {
+                rest.close();
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = rest;
+            channel.position(end - cut);
+            baseLsn = cut;
+        }
+    }
+
+    private int applyRecord(byte[] payload, Site[] sites, int fromTime) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        int time = record.readInt();
+        if (time < fromTime) {
+            return time;
+        }
+        boolean catchUp = record.readUTF().equals(CATCH_UP);
+        int writes = record.readInt();
+        //sites each variable was written at
+        Map<Integer, Set<Integer>> writtenAt = new HashMap<Integer, Set<Integer>>();
+        //version number each variable's write gets, fixed before any replica has it
+        Map<Integer, Integer> versionNumbers = new HashMap<Integer, Integer>();
+        for (int i = 0; i < writes; i ++) {
+            int site = record.readInt();
+            int variable = record.readInt();
+            int value = record.readInt();
+            if (site < sites.length && sites[site] != null && sites[site].hasVariable(variable)) {
+                Integer versionNumber = versionNumbers.get(variable);
+                if (versionNumber == null) {
+                    //a commit makes a new version; a catch-up copies the newest one
+                    versionNumber = newestVersionNumber(sites, variable) + (catchUp ? 0 : 1);
+                    versionNumbers.put(variable, versionNumber);
+                }
+                sites[site].updateValueOfVariable(variable, value, time, versionNumber);
+                allowRead(sites[site], variable);
+                Set<Integer> siteIds = writtenAt.get(variable);
+                if (siteIds == null) {
+                    siteIds = new HashSet<Integer>();
+                    writtenAt.put(variable, siteIds);
+                }
+                siteIds.add(site);
+            }
+        }
+        //a catch-up is for one replica, a commit for every replica that was up
+        if (!catchUp) {
+            for (Map.Entry<Integer, Set<Integer>> written : writtenAt.entrySet()) {
+                revokeReadWhereSkipped(sites, written.getKey(), written.getValue());
+            }
+        }
+        return time;
+    }
+
+    /** Highest version number of the variable at any of its replicas, as the TM numbers a commit */
+    private static int newestVersionNumber(Site[] sites, int variable) {
+        int newest = 0;
+        for (Site site : sites) {
+            if (site != null && site.hasVariable(variable)) {
+                newest = Math.max(newest, site.latestVersionNumberOf(variable));
+            }
+        }
+        return newest;
+    }
+
+    /** A replica written to is readable again, as the commit made it */
+    private static void allowRead(Site site, int variable) {
+        if (site.alterReadPermissionForVariable(variable) && site.allEvenVariablesWrittenToAfterRecovery()) {
+            site.setSiteStatus(SiteStatus.ACTIVE);
+        }
+    }
+
+    /** A replica the commit skipped misses its write: its site was down, and is recovered now */
+    private static void revokeReadWhereSkipped(Site[] sites, int variable, Set<Integer> writtenAt) {
+        for (Site site : sites) {
+            if (site != null && site.hasVariable(variable) && !writtenAt.contains(site.getId())) {
+                site.revokeReadPermissionForVariable(variable);
+                site.setSiteStatus(SiteStatus.RECOVERED);
+            }
+        }
+    }
+
+    /**
+     * Buffer the commit record of a txn.
+     * @param writes each entry is {site, variable, value}
+     * @return log position the record ends at; durable once sync() has passed it
+     */
+    public synchronized long append(int commitTime, String txnId, List<int[]> writes) {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(
+                16 + txnId.length() + 4 * INTS_PER_WRITE * writes.size());
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        try {
+            payload.writeInt(commitTime);
+            payload.writeUTF(txnId);
+            payload.writeInt(writes.size());
+            for (int[] write : writes) {
+                for (int i = 0; i < INTS_PER_WRITE; i ++) {
+                    payload.writeInt(write[i]);
+                }
+            }
+            byte[] bytes = payloadBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            bufferOut.writeInt(bytes.length);
+            bufferOut.write(bytes);
+            bufferOut.writeInt((int) crc.getValue());
+            appendedLsn += 4 + bytes.length + 4;
+        } catch (IOException e) {
+            //in-memory streams do not throw
+            throw new UncheckedIOException(e);
+        }
+        bufferedRecords ++;
+        bufferedAppendNanos += System.nanoTime();
+        return appendedLsn;
+    }
+
+    /** Write every buffered record and fsync once for all of them */
+    public void sync() {
+        synchronized (syncLock) {
+            byte[] bytes;
+            long upTo;
+            int batch;
+            long appendNanos;
+            synchronized (this) {
+                if (bufferedRecords == 0) {
+                    return;
+                }
+                bytes = buffer.toByteArray();
+                buffer.reset();
+                upTo = appendedLsn;
+                batch = bufferedRecords;
+                appendNanos = bufferedAppendNanos;
+                bufferedRecords = 0;
+                bufferedAppendNanos = 0;
+            }
+            try {
+                ByteBuffer toWrite = ByteBuffer.wrap(bytes);
+                while (toWrite.hasRemaining()) {
+                    channel.write(toWrite);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                durableLsn = upTo;
+                syncs ++;
+                recordsSynced += batch;
+                maxBatch = Math.max(maxBatch, batch);
+                totalCommitLatencyNanos += batch * now - appendNanos;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Block until the record ending at lsn is durable. Waits up to the
+     * group commit window for another thread to sync, then syncs itself.
+     */
+    public void awaitDurable(long lsn) {
+        long deadline = System.nanoTime() + windowNanos;
+        while (true) {
+            synchronized (this) {
+                if (durableLsn >= lsn) {
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    try {
+                        wait(remaining / 1000000, (int) (remaining % 1000000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    continue;
+                }
+            }
+            sync();
+        }
+    }
+
+    public void close() throws IOException {
+        sync();
+        synchronized (syncLock) {
+            channel.close();
+        }
+    }
+
+    public synchronized String getStatistics() {
+        double averageBatch = syncs == 0 ? 0 : (double) recordsSynced / syncs;
+        double averageLatencyMicros = recordsSynced == 0 ? 0
+                : totalCommitLatencyNanos / 1000.0 / recordsSynced;
+        return String.format("Log syncs = %d, commit records = %d, average batch = %.2f,"
+                + " max batch = %d, average commit latency = %.1f us",
+                syncs, recordsSynced, averageBatch, maxBatch, averageLatencyMicros);
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+/**
+ * Uncommitted writes of one transaction: the last value it wrote to
+ * each variable, kept once however many sites hold the variable.
+ * Variables and values are parallel int arrays in the order the
+ * variables were first written, found through an open-addressing
+ * index, so nothing is boxed and a lookup is O(1).
+ * Used by the txn's own thread only, until it commits.
+ */
+public class WriteSet {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] variables = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    //Position in variables + 1 of the variable hashed here, 0 if the slot is empty
+    private int[] index = new int[2 * INITIAL_CAPACITY];
+    //32 - log2(index.length): the hash's top bits, the best mixed ones, pick the slot
+    private int shift = 32 - Integer.numberOfTrailingZeros(index.length);
+
+    /** Record value as the variable's uncommitted value, replacing any earlier one */
+    public void put(int variable, int value) {
+        int slot = find(variable);
+        if (index[slot] != 0) {
+            values[index[slot] - 1] = value;
+            return;
+        }
+        if (size == variables.length) {
+            variables = Arrays.copyOf(variables, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        variables[size] = variable;
+        values[size] = value;
+        size ++;
+        index[slot] = size;
+        //keep the index at most a quarter full, so probe runs stay short
+        if (4 * size > index.length) {
+            rehash(2 * index.length);
+        }
+    }
+
+    public boolean contains(int variable) {
+        return index[find(variable)] != 0;
+    }
+
+    /** The value written to the variable; only if contains(variable) */
+    public int get(int variable) {
+        return values[index[find(variable)] - 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The i-th variable written, in the order first written */
+    public int variableAt(int i) {
+        return variables[i];
+    }
+
+    /** Value written to variableAt(i) */
+    public int valueAt(int i) {
+        return values[i];
+    }
+
+    /** Slot of the variable in the index, or the empty slot where it would go */
+    private int find(int variable) {
+        int mask = index.length - 1;
+        int slot = (variable * 0x9E3779B9) >>> shift;
+        while (index[slot] != 0 && variables[index[slot] - 1] != variable) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        index = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < size; i ++) {
+            index[find(variables[i])] = i + 1;
+        }
+    }
+}
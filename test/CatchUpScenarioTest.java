@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Recovered sites copying the versions they missed from a peer (enableCatchUp) */
+class CatchUpScenarioTest {
+    //every site but the one named, so it alone serves the even variables
+    private static String failAllBut(int site) {
+        StringBuilder line = new StringBuilder();
+        for (int other = 1; other <= TransactionManager.DEFAULT_SITE_COUNT; other ++) {
+            if (other != site) {
+                line.append("fail(").append(other).append("); ");
+            }
+        }
+        return line.toString();
+    }
+
+    private static ScriptRunner catchingUp(int variablesPerTick) {
+        TransactionManager tm = new TransactionManager();
+        tm.enableCatchUp(variablesPerTick);
+        return new ScriptRunner(tm);
+    }
+
+    @Test
+    void recoveredSiteCatchesUpWithoutWrites() {
+        ScriptRunner script = catchingUp(TransactionManager.DEFAULT_VARIABLE_COUNT);
+        String output = script.run(
+                "fail(1)",
+                "begin(T1); W(T1,x2,21); W(T1,x4,41); end(T1)",
+                "begin(T2); W(T2,x2,22); end(T2)",
+                "recover(1)",
+                failAllBut(1),
+                "begin(T3); R(T3,x2); R(T3,x4); R(T3,x6)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Transaction T2 has committed",
+                "Value of x2 read by T3 is 22 at site 1",
+                "Value of x4 read by T3 is 41 at site 1",
+                "Value of x6 read by T3 is 60 at site 1"), output);
+    }
+
+    @Test
+    void catchUpCopiesACommitMadeInTheTickOfTheLatestVersionThere() {
+        ScriptRunner script = catchingUp(TransactionManager.DEFAULT_VARIABLE_COUNT);
+        String output = script.run(
+                "begin(T1); W(T1,x2,1)",
+                //site 2 has T1's version of x2 but not T2's, committed in the same tick
+                "end(T1); fail(2); begin(T2); W(T2,x2,7); end(T2)",
+                "recover(2)",
+                failAllBut(2),
+                "begin(T3); R(T3,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Transaction T2 has committed",
+                "Value of x2 read by T3 is 7 at site 2"), output);
+    }
+
+    @Test
+    void withoutCatchUpTheReplicaWaitsForAWrite() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "fail(1)",
+                "begin(T1); W(T1,x2,21); end(T1)",
+                "recover(1)",
+                failAllBut(1),
+                "begin(T3); R(T3,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Transaction T3 cannot read variable x2 at site 1 because the site was recovered"
+                        + " and the replicated data item is yet to be written to."), output);
+    }
+}
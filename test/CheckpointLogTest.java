@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Restart from a checkpoint and the redo log written after it */
+class CheckpointLogTest {
+    private static final int TXNS = 20;
+
+    @TempDir
+    Path dir;
+
+    /** One committed write of x2 per line */
+    private static String[] writes(int from, int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i ++) {
+            int txn = from + i;
+            lines[i] = "begin(T" + txn + "); W(T" + txn + ",x2," + txn + "); end(T" + txn + ")";
+        }
+        return lines;
+    }
+
+    /** @param checkpointEvery ticks between checkpoints; 0 for no checkpoint */
+    private ScriptRunner open(int checkpointEvery) throws Exception {
+        TransactionManager tm = new TransactionManager();
+        ScriptRunner script = new ScriptRunner(tm);
+        if (checkpointEvery > 0) {
+            tm.enableCheckpoints(dir.resolve("db.ckpt").toString(), checkpointEvery);
+        }
+        tm.openLog(dir.resolve("db.wal").toString(), 0);
+        return script;
+    }
+
+    @Test
+    void checkpointDropsTheLogRecordsItHolds() throws Exception {
+        Path log = dir.resolve("db.wal");
+        ScriptRunner before = open(1);
+        before.run(writes(1, TXNS));
+        //a tick skips its checkpoint while the last one is still being written
+        before.getTransactionManager().awaitCheckpoint();
+        //so this tick's checkpoint is sure to hold every write
+        String expected = before.run("dump(x2)");
+        before.getTransactionManager().awaitCheckpoint();
+        assertEquals(0, Files.size(log));
+
+        //restart from the checkpoint alone, then log more commits without checkpointing them
+        ScriptRunner after = open(1000);
+        assertEquals(expected, after.run("dump(x2)"));
+        after.run(writes(TXNS + 1, 3));
+        assertTrue(Files.size(log) > 0);
+        String expectedAgain = after.run("dump(x2)");
+
+        //restart from the checkpoint and the commits logged after it
+        assertEquals(expectedAgain, open(1000).run("dump(x2)"));
+    }
+
+    @Test
+    void replayKeepsAReplicaThatMissedACommitUnreadable() throws Exception {
+        ScriptRunner before = open(0);
+        //site 1 misses the write of x2, then gets the one of x4 after it recovers
+        before.run("fail(1)", "begin(T1); W(T1,x2,99); end(T1)", "recover(1)",
+                "begin(T2); W(T2,x4,44); end(T2)");
+
+        String read = open(0).run("begin(T3); R(T3,x2); R(T3,x4)");
+        assertEquals(ScriptRunner.lines("Transaction T3 cannot read variable x2 at site 1 because the site was"
+                + " recovered and the replicated data item is yet to be written to.",
+                "Value of x2 read by T3 is 99 at site 2",
+                "Value of x4 read by T3 is 44 at site 1"), read);
+    }
+
+    @Test
+    void checkpointKeepsAStaleReplicaUnreadable() throws Exception {
+        ScriptRunner before = open(1);
+        before.run("fail(1)", "begin(T1); W(T1,x2,99); end(T1)", "recover(1)");
+        before.getTransactionManager().awaitCheckpoint();
+        before.run("dump(x2)");
+        before.getTransactionManager().awaitCheckpoint();
+        //restart from the checkpoint alone
+        Files.delete(dir.resolve("db.wal"));
+
+        String read = open(1000).run("begin(T3); R(T3,x2)");
+        assertEquals(ScriptRunner.lines("Transaction T3 cannot read variable x2 at site 1 because the site was"
+                + " recovered and the replicated data item is yet to be written to.",
+                "Value of x2 read by T3 is 99 at site 2"), read);
+    }
+
+    @Test
+    void restoreRefusesACheckpointOfAnotherPlacement() throws Exception {
+        ScriptRunner before = open(1);
+        before.run(writes(1, 1));
+        before.getTransactionManager().awaitCheckpoint();
+
+        final TransactionManager ranged = new TransactionManager(TransactionManager.DEFAULT_SITE_COUNT,
+                TransactionManager.DEFAULT_VARIABLE_COUNT, new RangePlacement(TransactionManager.DEFAULT_SITE_COUNT,
+                TransactionManager.DEFAULT_VARIABLE_COUNT, 3));
+        new ScriptRunner(ranged);
+        assertThrows(IOException.class, new Executable() {
+            public void execute() throws Throwable {
+                ranged.enableCheckpoints(dir.resolve("db.ckpt").toString(), 1000);
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class CommandServerTest {
+
+    /** A client that sends one line at a time and reads its answer up to "OK" */
+    private static class Client {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(10000);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        }
+
+        String send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            StringBuilder answer = new StringBuilder();
+            String answerLine;
+            while (!(answerLine = in.readLine()).equals("OK")) {
+                answer.append(answerLine).append('\n');
+            }
+            return answer.toString();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static int start(TransactionManager tm) throws IOException {
+        tm.setEventSink(new RoutingEventSink(new NoOpEventSink()));
+        tm.initialize();
+        final CommandServer server = new CommandServer(tm, 0);
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, "command-server");
+        serving.setDaemon(true);
+        serving.start();
+        return server.getPort();
+    }
+
+    @Test
+    void disconnectAbortsTheClientsTxns() throws Exception {
+        TransactionManager tm = new TransactionManager();
+        int port = start(tm);
+        Client older = new Client(port);
+        Client younger = new Client(port);
+        older.send("begin(T1)");
+        younger.send("begin(T2)");
+        younger.send("W(T2,x2,22)");
+        //T1 is older, so it waits for T2's lock
+        assertEquals("", older.send("W(T1,x2,11)"));
+
+        younger.close();
+        //the server notices the disconnect in its own time, then aborts and forgets T2
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tm.getTransaction("T2") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertNull(tm.getTransaction("T2"));
+        assertEquals(ScriptRunner.lines("Transaction T1 has committed"), older.send("end(T1)"));
+        assertEquals(1, tm.getMetrics().getAborts(AbortCause.ABANDONED));
+        older.close();
+    }
+
+    @Test
+    void commandsThatCannotRunAreRefused() throws Exception {
+        TransactionManager tm = new TransactionManager();
+        int port = start(tm);
+        Client first = new Client(port);
+        Client second = new Client(port);
+        assertEquals(ScriptRunner.lines("ERROR Unknown transaction T9"), first.send("R(T9,x1)"));
+        assertEquals(ScriptRunner.lines("ERROR No variable x99: variables are x1..x20"),
+                first.send("begin(T1); R(T1,x99)"));
+        assertEquals(ScriptRunner.lines("ERROR No site 42: sites are 1..10"), first.send("fail(42)"));
+        assertEquals(ScriptRunner.lines("ERROR No variable x0: variables are x1..x20"), first.send("dump(x0)"));
+
+        //T1 is the first client's
+        assertEquals(ScriptRunner.lines("ERROR Transaction T1 already exists"), second.send("begin(T1)"));
+        assertEquals(ScriptRunner.lines("ERROR Unknown transaction T1"), second.send("W(T1,x2,5)"));
+        assertEquals(ScriptRunner.lines("ERROR Unknown transaction T1"), second.send("end(T1)"));
+        assertEquals(TransactionStatus.ACTIVE, tm.getTransaction("T1").getStatus());
+
+        //the rest of a line still runs, and the first client can begin T1 again once it has ended
+        assertEquals(ScriptRunner.lines("ERROR Unknown transaction T9", "Transaction T1 has committed"),
+                first.send("R(T9,x1); end(T1)"));
+        assertEquals("", first.send("begin(T1)"));
+        assertEquals(TransactionStatus.ACTIVE, tm.getTransaction("T1").getStatus());
+        first.close();
+        second.close();
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * RO txns beginning on some threads while another thread commits and
+ * collects old versions: the collector must never trim the version
+ * an RO txn that has just begun is about to read.
+ */
+class ConcurrentSnapshotReadTest {
+    private static final int READERS = 3;
+    private static final int ROUNDS = 20000;
+
+    @Test
+    void snapshotBegunDuringCollectionKeepsItsVersion() throws InterruptedException {
+        final TransactionManager tm = new TransactionManager();
+        tm.initialize();
+        //as main does before the first line: an RO txn must start after the initial versions
+        tm.incrementTime();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROUNDS && failure.get() == null; i ++) {
+                    String txn = "W" + i;
+                    tm.incrementTime();
+                    Command write = new Command(Operation.WRITE, txn, 1);
+                    write.setToWriteValue(i);
+                    try {
+                        tm.execute(new Command(Operation.BEGIN, txn));
+                        tm.execute(write);
+                        tm.execute(new Command(Operation.END, txn));
+                        tm.collectOldVersions();
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        });
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r ++) {
+            final int reader = r;
+            readers[r] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < ROUNDS && failure.get() == null; i ++) {
+                        String txn = "R" + reader + "_" + i;
+                        try {
+                            tm.execute(new Command(Operation.BEGINRO, txn));
+                            tm.execute(new Command(Operation.READ, txn, 1));
+                            tm.execute(new Command(Operation.END, txn));
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(null, failure.get());
+    }
+}
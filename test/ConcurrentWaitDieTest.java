@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Threads running conflicting txns against one TransactionManager,
+ * without ticks in between, so many txns begin at the same time.
+ * Every txn must still end, committed or aborted: none may wait
+ * forever for another that waits for it.
+ */
+class ConcurrentWaitDieTest {
+    private static final int THREADS = 8;
+    private static final int TXNS_PER_THREAD = 200;
+    private static final long MAX_WAIT_MILLIS = 10000;
+
+    @Test
+    void txnsBegunAtTheSameTimeNeverWaitForEachOther() throws InterruptedException {
+        runTransfers(new TransactionManager());
+    }
+
+    @Test
+    void txnsBegunAtTheSameTimeNeverWaitForEachOtherWithParallelFanOut() throws InterruptedException {
+        TransactionManager tm = new TransactionManager();
+        tm.enableParallelFanOut();
+        try {
+            runTransfers(tm);
+        } finally {
+            tm.shutdownFanOut();
+        }
+    }
+
+    @Test
+    void txnsBegunAtTheSameTimeNeverWaitForEachOtherUnderWoundWait() throws InterruptedException {
+        TransactionManager tm = new TransactionManager();
+        tm.setDeadlockPolicy(new WoundWaitPolicy());
+        runTransfers(tm);
+    }
+
+    private void runTransfers(final TransactionManager tm) throws InterruptedException {
+        tm.initialize();
+        final AtomicReference<String> stuck = new AtomicReference<String>();
+        final List<String> txnIds = new ArrayList<String>();
+        for (int t = 0; t < THREADS; t ++) {
+            for (int i = 0; i < TXNS_PER_THREAD; i ++) {
+                txnIds.add("T" + t + "_" + i);
+            }
+        }
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t ++) {
+            final int worker = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(worker);
+                    for (int i = 0; i < TXNS_PER_THREAD && stuck.get() == null; i ++) {
+                        String txn = "T" + worker + "_" + i;
+                        //a transfer between two of a few hot variables, replicated and not
+                        int from = 1 + random.nextInt(4);
+                        int to = 1 + (from + random.nextInt(3)) % 4;
+                        List<Command> commands = new ArrayList<Command>();
+                        commands.add(new Command(Operation.BEGIN, txn));
+                        commands.add(new Command(Operation.READ, txn, from));
+                        commands.add(new Command(Operation.READ, txn, to));
+                        Command debit = new Command(Operation.WRITE, txn, from);
+                        debit.setToWriteValue(-i);
+                        commands.add(debit);
+                        Command credit = new Command(Operation.WRITE, txn, to);
+                        credit.setToWriteValue(i);
+                        commands.add(credit);
+                        commands.add(new Command(Operation.END, txn));
+                        for (Command cmd : commands) {
+                            if (tm.getTransaction(txn) != null
+                                    && tm.getTransaction(txn).getStatus() != TransactionStatus.ACTIVE) {
+                                break;
+                            }
+                            tm.execute(cmd);
+                            if (!awaitUnblocked(tm, cmd)) {
+                                stuck.compareAndSet(null, txn + " blocked on " + cmd.getOperation()
+                                        + " for " + MAX_WAIT_MILLIS + " ms");
+                                return;
+                            }
+                        }
+                        tm.retryWokenCommands();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(null, stuck.get());
+        int committed = 0;
+        for (String txnId : txnIds) {
+            TransactionStatus status = tm.getTransaction(txnId).getStatus();
+            assertNotEquals(TransactionStatus.ACTIVE, status, txnId);
+            if (status == TransactionStatus.COMMITTED) {
+                committed ++;
+            }
+        }
+        assertTrue(committed > 0);
+    }
+
+    /** @return false if cmd is still blocked after MAX_WAIT_MILLIS */
+    private static boolean awaitUnblocked(TransactionManager tm, Command cmd) {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        while (cmd.isInPendingList()) {
+            Transaction txn = tm.getTransaction(cmd.getTransaction());
+            if (txn.getStatus() != TransactionStatus.ACTIVE || txn.getRequestedAbortReason() != null) {
+                return true;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            tm.retryWokenCommands();
+            Thread.yield();
+        }
+        return true;
+    }
+}
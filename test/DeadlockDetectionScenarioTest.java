@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Deadlock detection only aborts a txn on a cycle in the waits-for graph */
+class DeadlockDetectionScenarioTest {
+
+    private static ScriptRunner withDetection() {
+        TransactionManager tm = new TransactionManager();
+        tm.setDeadlockPolicy(new DeadlockDetectionPolicy());
+        return new ScriptRunner(tm);
+    }
+
+    @Test
+    void waitsWithoutACycleAbortNobody() {
+        ScriptRunner script = withDetection();
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "W(T1,x1,101)",
+                //younger T2 waits for T1 instead of dying
+                "W(T2,x1,201)",
+                "begin(T3); R(T3,x1)",
+                "end(T1)",
+                "end(T2)",
+                "end(T3)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Transaction T2 has committed",
+                "Value of x1 read by T3 is 201 at site 2",
+                "Transaction T3 has committed"), output);
+    }
+
+    @Test
+    void twoTxnCycleAbortsTheYoungerOnATie() {
+        ScriptRunner script = withDetection();
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "W(T2,x2,202)",
+                "W(T1,x1,101)",
+                "W(T1,x2,102)",
+                "W(T2,x1,201)",
+                "end(T1)",
+                "end(T2)",
+                "dump(x1)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 was aborted (deadlock detection) because it did the least work" +
+                        " in a cycle of transactions waiting on each other's locks",
+                "Transaction T1 has committed",
+                "Variable x1 has value: 101 at site 2"), output);
+    }
+
+    @Test
+    void threeTxnCycleAbortsTheOneThatDidTheLeastWork() {
+        ScriptRunner script = withDetection();
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "begin(T3)",
+                "R(T1,x4)",
+                "R(T3,x6)",
+                "W(T1,x1,101)",
+                "W(T2,x2,202)",
+                "W(T3,x3,303)",
+                //T1 -> T2 -> T3 -> T1, and T2 has done the least work
+                "W(T1,x2,102)",
+                "W(T2,x3,203)",
+                "W(T3,x1,301)",
+                "end(T2)",
+                "end(T1)",
+                "end(T3)",
+                "dump(x1)",
+                "dump(x3)");
+        assertEquals(ScriptRunner.lines(
+                "Value of x4 read by T1 is 40 at site 1",
+                "Value of x6 read by T3 is 60 at site 1",
+                "Transaction T2 was aborted (deadlock detection) because it did the least work" +
+                        " in a cycle of transactions waiting on each other's locks",
+                "Transaction T1 has committed",
+                "Transaction T3 has committed",
+                "Variable x1 has value: 301 at site 2",
+                "Variable x3 has value: 303 at site 4"), output);
+    }
+}
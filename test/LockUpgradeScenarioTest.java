@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** A txn writing a variable it has read upgrades its read locks */
+class LockUpgradeScenarioTest {
+
+    private static ScriptRunner withPolicy(DeadlockPolicy policy) {
+        TransactionManager tm = new TransactionManager();
+        tm.setDeadlockPolicy(policy);
+        return new ScriptRunner(tm);
+    }
+
+    @Test
+    void soleReaderUpgradesInPlace() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "begin(T1)",
+                "R(T1,x2)",
+                "W(T1,x2,5)",
+                "end(T1)",
+                "begin(T2); R(T2,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Transaction T1 has committed",
+                "Value of x2 read by T2 is 5 at site 1"), output);
+    }
+
+    @Test
+    void upgradeWaitsForOtherReadersAndBlocksNewOnes() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "R(T1,x2)",
+                "R(T2,x2)",
+                //T1 waits for T2's read lock to upgrade
+                "W(T1,x2,5)",
+                //a read after the queued upgrade conflicts with it, so the upgrade is not starved
+                "begin(T3); R(T3,x2)",
+                "end(T2)",
+                "end(T1)",
+                "begin(T4); R(T4,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Value of x2 read by T2 is 20 at site 1",
+                "Transaction T3 was aborted (wait-die) because it was waiting on a lock held by Transaction T1",
+                "Transaction T2 has committed",
+                "Transaction T1 has committed",
+                "Value of x2 read by T4 is 5 at site 1"), output);
+    }
+
+    /** T1 and T2 both read x2, then both ask to upgrade: the first upgrade asked for is queued */
+    private static String upgradeUpgrade(DeadlockPolicy policy, String firstUpgrade, String secondUpgrade) {
+        return withPolicy(policy).run(
+                "begin(T1)",
+                "begin(T2)",
+                "R(T1,x2)",
+                "R(T2,x2)",
+                firstUpgrade,
+                secondUpgrade,
+                "end(T1)",
+                "end(T2)",
+                "begin(T3); R(T3,x2)");
+    }
+
+    @Test
+    void upgradeUpgradeDeadlockUnderWaitDie() {
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Value of x2 read by T2 is 20 at site 1",
+                "Transaction T2 was aborted (wait-die) because it was waiting on a lock held by Transaction T1",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 10 at site 1"),
+                upgradeUpgrade(new WaitDiePolicy(), "W(T1,x2,10)", "W(T2,x2,20)"));
+    }
+
+    @Test
+    void upgradeUpgradeDeadlockUnderWoundWait() {
+        //the younger T2 may wait for T1; the older T1 then wounds it
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Value of x2 read by T2 is 20 at site 1",
+                "Transaction T2 was aborted (wound-wait) because it held a lock needed by older Transaction T1",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 10 at site 1"),
+                upgradeUpgrade(new WoundWaitPolicy(), "W(T2,x2,20)", "W(T1,x2,10)"));
+    }
+
+    @Test
+    void upgradeUpgradeDeadlockUnderDetection() {
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Value of x2 read by T2 is 20 at site 1",
+                "Transaction T2 was aborted (deadlock detection) because it did the least work in a cycle"
+                        + " of transactions waiting on each other's locks",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 10 at site 1"),
+                upgradeUpgrade(new DeadlockDetectionPolicy(), "W(T1,x2,10)", "W(T2,x2,20)"));
+    }
+}
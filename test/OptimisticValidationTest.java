@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Scenarios under -Ddb.concurrency=occ */
+class OptimisticValidationTest {
+
+    private static ScriptRunner optimistic() {
+        TransactionManager tm = new TransactionManager();
+        tm.enableOptimisticConcurrency();
+        return new ScriptRunner(tm);
+    }
+
+    @Test
+    void readOverwrittenInTheSameTickFailsValidation() {
+        ScriptRunner script = optimistic();
+        String output = script.run(
+                "begin(T1); begin(T2); begin(T3)",
+                //T1 reads T2's version; T3 replaces it in the same tick, so both have the same time
+                "W(T2,x1,5); end(T2); R(T1,x1); W(T3,x1,7); end(T3)",
+                "W(T1,x1,99)",
+                "end(T1)",
+                "dump(x1)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Value of x1 read by T1 is 5 at site 2",
+                "Transaction T3 has committed",
+                "Transaction T1 has been aborted because x1 was committed by another transaction"
+                        + " after it read it (validation failed)",
+                "Variable x1 has value: 7 at site 2"), output);
+    }
+
+    @Test
+    void readStillLatestPassesValidation() {
+        ScriptRunner script = optimistic();
+        String output = script.run(
+                "begin(T1); begin(T2)",
+                "W(T2,x1,5); end(T2); R(T1,x1)",
+                "W(T1,x1,99)",
+                "end(T1)",
+                "dump(x1)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Value of x1 read by T1 is 5 at site 2",
+                "Transaction T1 has committed",
+                "Variable x1 has value: 99 at site 2"), output);
+    }
+
+    @Test
+    void optimisticCommitWakesReadWaitingOnRecoveredSite() {
+        ScriptRunner script = optimistic();
+        String output = script.run(
+                "fail(1); fail(2); fail(3); fail(4); fail(5); fail(6); fail(7); fail(8); fail(9); fail(10)",
+                "recover(1)",
+                "beginRO(T2)",
+                //x2 is replicated, so site 1 cannot serve it until it is written
+                "R(T2,x2)",
+                "begin(T3)",
+                "W(T3,x2,22)",
+                "end(T3)",
+                "end(T2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 cannot read variable x2 at site 1 because the site was recovered"
+                        + " and the replicated data item is yet to be written to.",
+                "Transaction T3 has committed",
+                "Value of x2 read by T2 is 20 at site 1",
+                "Transaction T2 has committed"), output);
+    }
+}
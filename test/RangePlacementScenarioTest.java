@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Databases laid out by RangePlacement (-Ddb.placement=range) */
+class RangePlacementScenarioTest {
+
+    private static ScriptRunner ranged(int siteCount, int variableCount, int replication) {
+        return new ScriptRunner(new TransactionManager(siteCount, variableCount,
+                new RangePlacement(siteCount, variableCount, replication)));
+    }
+
+    @Test
+    void everySiteStartsARangeWhenTheSizesDoNotDivide() {
+        //11 variables on 10 sites: one range of two variables and nine of one
+        ScriptRunner script = ranged(10, 11, 1);
+        String output = script.run("dump(1)", "dump(2)", "dump(10)");
+        assertEquals(ScriptRunner.lines(
+                "Variables on site 1",
+                "Variable x1 has value: 10 at site 1",
+                "Variables on site 2",
+                "Variable x2 has value: 20 at site 2",
+                "Variables on site 10",
+                "Variable x10 has value: 100 at site 10",
+                "Variable x11 has value: 110 at site 10"), output);
+    }
+
+    @Test
+    void rangeIsReplicatedOnTheNextSites() {
+        ScriptRunner script = ranged(10, 20, 3);
+        String output = script.run(
+                "dump(x20)",
+                "fail(10)",
+                "begin(T1); R(T1,x19); W(T1,x20,7); end(T1)",
+                "dump(x20)");
+        assertEquals(ScriptRunner.lines(
+                "Variable x20 has value: 200 at site 10",
+                "Variable x20 has value: 200 at site 1",
+                "Variable x20 has value: 200 at site 2",
+                "Value of x19 read by T1 is 190 at site 1",
+                "Transaction T1 has committed",
+                "Variable x20 has value: 200 at site 10",
+                "Variable x20 has value: 7 at site 1",
+                "Variable x20 has value: 7 at site 2"), output);
+    }
+}
@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class ReadFileInputTest {
+
+    private static ReadFileInput input(String text) {
+        return new ReadFileInput(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void commentLinesHaveNoCommands() {
+        ReadFileInput input = input("// Test 1\n# T1 reads x2\nbegin(T1)\n\n");
+        assertTrue(input.getLineAsCommands().isEmpty());
+        assertTrue(input.getLineAsCommands().isEmpty());
+        List<Command> commands = input.getLineAsCommands();
+        assertEquals(1, commands.size());
+        assertEquals(Operation.BEGIN, commands.get(0).getOperation());
+        assertTrue(input.getLineAsCommands().isEmpty());
+        assertFalse(input.hasNextLine());
+    }
+
+    @Test
+    void commentEndsTheLine() {
+        ReadFileInput input = input("begin(T1); R(T1,x2) // T1 waits; W(T1,x2,5)\nend(T1)\n");
+        List<Command> commands = input.getLineAsCommands();
+        assertEquals(2, commands.size());
+        assertEquals(Operation.READ, commands.get(1).getOperation());
+        assertEquals(Operation.END, input.getLineAsCommands().get(0).getOperation());
+    }
+
+    @Test
+    void parsingGoesOnAfterABadLine() {
+        final ReadFileInput input = input("Test 1\nbegin(T1)\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                input.getLineAsCommands();
+            }
+        });
+        assertTrue(e.getMessage().contains("line 1"), e.getMessage());
+        input.skipRestOfLine();
+        assertEquals(Operation.BEGIN, input.getLineAsCommands().get(0).getOperation());
+    }
+
+    @Test
+    void numberPastAnIntIsABadLine() {
+        final ReadFileInput input = input("W(T1,x1,99999999999)\nW(T1,x1,2147483647); W(T1,x1,-2147483648)\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                input.getLineAsCommands();
+            }
+        });
+        assertTrue(e.getMessage().contains("out of range"), e.getMessage());
+        input.skipRestOfLine();
+        List<Command> commands = input.getLineAsCommands();
+        assertEquals(Integer.MAX_VALUE, commands.get(0).getToWriteValue());
+        assertEquals(Integer.MIN_VALUE, commands.get(1).getToWriteValue());
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+/** Which replica serves a read of a replicated variable, under each selector */
+class ReplicaSelectionScenarioTest {
+
+    //T1 holds write locks on x1 and x11, both at site 2, while T2 reads
+    private static final String[] READS_WHILE_SITE_2_IS_BUSY = {
+            "begin(T1)",
+            "W(T1,x1,101); W(T1,x11,111)",
+            "begin(T2)",
+            "R(T2,x2)",
+            "R(T2,x4)",
+            "R(T2,x6)",
+            "end(T2)",
+            "end(T1)",
+            "fail(1)",
+            "begin(T3); R(T3,x2); end(T3)"};
+
+    private static ScriptRunner withSelector(ReplicaSelector selector) {
+        TransactionManager tm = new TransactionManager();
+        tm.setReplicaSelector(selector);
+        return new ScriptRunner(tm);
+    }
+
+    @Test
+    void firstAlwaysReadsTheLowestSiteThatIsUp() {
+        String output = withSelector(new FirstReplicaSelector()).run(READS_WHILE_SITE_2_IS_BUSY);
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T2 is 20 at site 1",
+                "Value of x4 read by T2 is 40 at site 1",
+                "Value of x6 read by T2 is 60 at site 1",
+                "Transaction T2 has committed",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 20 at site 2",
+                "Transaction T3 has committed"), output);
+    }
+
+    @Test
+    void roundRobinReadsEachReplicaInTurn() {
+        String output = withSelector(new RoundRobinReplicaSelector()).run(READS_WHILE_SITE_2_IS_BUSY);
+        //once site 1 fails, the 4th read goes to the 4th of sites 2..10
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T2 is 20 at site 1",
+                "Value of x4 read by T2 is 40 at site 2",
+                "Value of x6 read by T2 is 60 at site 3",
+                "Transaction T2 has committed",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 20 at site 5",
+                "Transaction T3 has committed"), output);
+    }
+
+    @Test
+    void leastLoadedMovesReadsAwayFromSitesHoldingLocks() {
+        String output = withSelector(new LeastLoadedReplicaSelector()).run(READS_WHILE_SITE_2_IS_BUSY);
+        //x4 would be site 2's turn, x6 site 3's, but T2 now holds a read lock there
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T2 is 20 at site 1",
+                "Value of x4 read by T2 is 40 at site 3",
+                "Value of x6 read by T2 is 60 at site 4",
+                "Transaction T2 has committed",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 20 at site 5",
+                "Transaction T3 has committed"), output);
+    }
+
+    @Test
+    void powerOfTwoNeverPicksTheOnlyBusySite() {
+        String[] lines = new String[2 + 50];
+        lines[0] = "begin(T1)";
+        lines[1] = "W(T1,x1,101); W(T1,x11,111)";
+        for (int i = 0; i < 50; i ++) {
+            String txn = "T" + (i + 2);
+            lines[2 + i] = "begin(" + txn + "); R(" + txn + ",x2); end(" + txn + ")";
+        }
+        String output = withSelector(new PowerOfTwoReplicaSelector()).run(lines);
+        //whenever site 2 is one of the two choices, the other one is idle
+        assertFalse(output.contains("at site 2"), output);
+    }
+}
@@ -0,0 +1,58 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Runs lines in the input file grammar through a TransactionManager,
+ * one tick per line as TransactionManager.main does, and returns the
+ * output each batch of lines produced.
+ */
+class ScriptRunner {
+    private final TransactionManager tm;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final EventSink events;
+
+    /** tm is configured but not yet initialized */
+    ScriptRunner(TransactionManager tm) {
+        this.tm = tm;
+        events = new RingBufferEventSink(out);
+        tm.setEventSink(events);
+        tm.initialize();
+    }
+
+    TransactionManager getTransactionManager() {
+        return tm;
+    }
+
+    /** @return the output of the lines, including that of commands they woke */
+    String run(String... lines) {
+        StringBuilder script = new StringBuilder();
+        for (String line : lines) {
+            script.append(line).append('\n');
+        }
+        ReadFileInput input = new ReadFileInput(
+                new ByteArrayInputStream(script.toString().getBytes(StandardCharsets.US_ASCII)));
+        while (input.hasNextLine()) {
+            tm.incrementTime();
+            List<Command> commands = input.getLineAsCommands();
+            for (Command cmd : commands) {
+                tm.execute(cmd);
+            }
+            tm.endTick();
+        }
+        events.flush();
+        String output = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        out.reset();
+        return output;
+    }
+
+    /** The expected output: each line followed by a newline */
+    static String lines(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+}
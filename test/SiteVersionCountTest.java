@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** The version counts the metrics report are kept as chains change, not scanned */
+class SiteVersionCountTest {
+
+    private static long scan(Site site) {
+        long versions = 0;
+        for (int var : site.getVariables()) {
+            versions += site.getValueHistoryOfVariable(var).size();
+        }
+        return versions;
+    }
+
+    @Test
+    void countFollowsWritesCollectionAndRestore() {
+        Site site = new Site(1, new int[] {1, 2, 3}, new PendingCommands());
+        for (int var = 1; var <= 3; var ++) {
+            site.addVariableToSite(var, new ValueTimeStamp(10 * var, 0));
+        }
+        assertEquals(3, site.getVersionCount());
+
+        for (int time = 1; time <= 20; time ++) {
+            site.updateValueOfVariable(1 + time % 2, time, time, time + 1);
+        }
+        assertEquals(scan(site), site.getVersionCount());
+        assertEquals(11, site.getLongestChain());
+
+        site.collectOldVersions(15, 3);
+        assertEquals(scan(site), site.getVersionCount());
+        //the peak is kept after the chains are trimmed
+        assertEquals(11, site.getLongestChain());
+
+        site.restoreVariable(1, new ValueTimeStamp(7, 20), 21);
+        assertEquals(scan(site), site.getVersionCount());
+
+        site.collectOldVersions(Integer.MAX_VALUE, 3);
+        assertEquals(3, site.getVersionCount());
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Read-write txns begun with beginSI */
+class SnapshotIsolationScenarioTest {
+
+    @Test
+    void readsSeeTheSnapshotAtBegin() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "beginSI(T1)",
+                "begin(T2); W(T2,x4,44); end(T2)",
+                "R(T1,x4)",
+                "W(T1,x6,66)",
+                "end(T1)",
+                "begin(T3); R(T3,x6)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Value of x4 read by T1 is 40 at site 1",
+                "Transaction T1 has committed",
+                "Value of x6 read by T3 is 66 at site 1"), output);
+    }
+
+    @Test
+    void firstCommitterWins() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "beginSI(T1)",
+                //x2 is committed after T1 began, so T1 may not overwrite it
+                "begin(T2); W(T2,x2,5); end(T2)",
+                "W(T1,x2,7)",
+                "end(T1)",
+                "begin(T3); R(T3,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Transaction T1 has been aborted because x2 was committed by another transaction"
+                        + " after it began (first committer wins)",
+                "Value of x2 read by T3 is 5 at site 1"), output);
+    }
+
+    @Test
+    void concurrentWritersStillTakeWriteLocks() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "beginSI(T1)",
+                "beginSI(T2)",
+                "W(T1,x2,1)",
+                "W(T2,x2,2)",
+                "end(T1)",
+                "end(T2)",
+                "begin(T3); R(T3,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 was aborted (wait-die) because it was waiting on a lock held by Transaction T1",
+                "Transaction T1 has committed",
+                "Value of x2 read by T3 is 1 at site 1"), output);
+    }
+
+    @Test
+    void disjointWritesBothCommitEvenAfterCrossedReads() {
+        //write skew: snapshot isolation is not serializable
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "beginSI(T1)",
+                "beginSI(T2)",
+                "R(T1,x2); R(T2,x4)",
+                "W(T1,x4,1); W(T2,x2,2)",
+                "end(T1); end(T2)");
+        assertEquals(ScriptRunner.lines(
+                "Value of x2 read by T1 is 20 at site 1",
+                "Value of x4 read by T2 is 40 at site 1",
+                "Transaction T1 has committed",
+                "Transaction T2 has committed"), output);
+    }
+}
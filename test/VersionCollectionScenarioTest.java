@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Old versions are collected each tick below the start of the oldest running RO txn */
+class VersionCollectionScenarioTest {
+
+    @Test
+    void readOnlyReadAcrossCollectionPasses() {
+        TransactionManager tm = new TransactionManager();
+        ScriptRunner script = new ScriptRunner(tm);
+        String output = script.run(
+                "beginRO(T1)",
+                "begin(T2); W(T2,x2,21); end(T2)",
+                "begin(T3); W(T3,x2,22); end(T3)",
+                "begin(T4); W(T4,x2,23); end(T4)",
+                "R(T1,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Transaction T3 has committed",
+                "Transaction T4 has committed",
+                "Value of x2 read by T1 is 20 at site 1"), output);
+        //T1 still runs, so nothing since it began has been reclaimed
+        assertEquals(0, tm.getMetrics().getVersionsReclaimed());
+
+        output = script.run("end(T1)", "begin(T5); R(T5,x2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Value of x2 read by T5 is 23 at site 1"), output);
+        //20, 21 and 22 at each of the 10 sites holding x2
+        assertEquals(30, tm.getMetrics().getVersionsReclaimed());
+    }
+
+    @Test
+    void laterReadOnlyTxnReadsAVersionKeptForIt() {
+        TransactionManager tm = new TransactionManager();
+        ScriptRunner script = new ScriptRunner(tm);
+        String output = script.run(
+                "begin(T1); W(T1,x2,21); end(T1)",
+                "beginRO(T2)",
+                "begin(T3); W(T3,x2,22); end(T3)",
+                "begin(T4); W(T4,x2,23); end(T4)",
+                "R(T2,x2); end(T2)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T1 has committed",
+                "Transaction T3 has committed",
+                "Transaction T4 has committed",
+                "Value of x2 read by T2 is 21 at site 1",
+                "Transaction T2 has committed"), output);
+    }
+}
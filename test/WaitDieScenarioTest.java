@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/** Wait-die scenarios in the style of the original test file */
+class WaitDieScenarioTest {
+
+    @Test
+    void youngerWriterDiesAndOlderOneCommits() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "W(T1,x1,101)",
+                "W(T2,x2,202)",
+                "W(T1,x2,102)",
+                "W(T2,x1,201)",
+                "end(T1)",
+                "dump(x1)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 was aborted (wait-die) because it was waiting on a lock held by Transaction T1",
+                "Transaction T1 has committed",
+                "Variable x1 has value: 101 at site 2"), output);
+    }
+
+    @Test
+    void olderReaderWaitsForYoungerWriter() {
+        ScriptRunner script = new ScriptRunner(new TransactionManager());
+        String output = script.run(
+                "begin(T1)",
+                "begin(T2)",
+                "W(T2,x4,44)",
+                "R(T1,x4)",
+                "end(T2)",
+                "end(T1)");
+        assertEquals(ScriptRunner.lines(
+                "Transaction T2 has committed",
+                "Value of x4 read by T1 is 44 at site 1",
+                "Transaction T1 has committed"), output);
+    }
+}
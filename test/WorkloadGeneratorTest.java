@@ -0,0 +1,28 @@
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class WorkloadGeneratorTest {
+
+    @Test
+    void runEndsWhenSiteFailuresLeaveReadsBlocked() {
+        final TransactionManager tm = new TransactionManager();
+        Map<String, String> knobs = new HashMap<String, String>();
+        knobs.put("txns", "200");
+        knobs.put("failEvery", "5");
+        knobs.put("recoverAfter", "10");
+        final WorkloadGenerator generator = new WorkloadGenerator(tm, knobs);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), new Executable() {
+            public void execute() {
+                generator.run();
+            }
+        });
+        assertTrue(tm.getMetrics().getAborts(AbortCause.ABANDONED) > 0);
+    }
+}
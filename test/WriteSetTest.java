@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class WriteSetTest {
+
+    @Test
+    void lastValueWrittenIsKeptInFirstWrittenOrder() {
+        WriteSet writes = new WriteSet();
+        writes.put(7, 70);
+        writes.put(3, 30);
+        writes.put(7, 71);
+        assertEquals(2, writes.size());
+        assertEquals(7, writes.variableAt(0));
+        assertEquals(71, writes.valueAt(0));
+        assertEquals(3, writes.variableAt(1));
+        assertEquals(30, writes.get(3));
+        assertFalse(writes.contains(5));
+    }
+
+    @Test
+    void manyVariablesSurviveRehashing() {
+        //past 2^16 slots, a hash taken from bits 16 and up could only reach the first 2^16 of
+        //them, and the probe runs made this take tens of seconds
+        assertTimeoutPreemptively(Duration.ofSeconds(5), new Executable() {
+            public void execute() {
+                WriteSet writes = new WriteSet();
+                int count = 100000;
+                for (int i = 1; i <= count; i ++) {
+                    writes.put(i << 12, i);
+                }
+                assertEquals(count, writes.size());
+                for (int i = 1; i <= count; i ++) {
+                    assertTrue(writes.contains(i << 12));
+                    assertEquals(i, writes.get(i << 12));
+                    assertFalse(writes.contains((i << 12) + 1));
+                }
+            }
+        });
+    }
+}